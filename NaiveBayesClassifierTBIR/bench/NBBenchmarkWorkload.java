@@ -0,0 +1,220 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.aarribas.bench.NBWorkload;
+
+
+/**
+ * @author andresaan
+ * NBWorkload of the JMH benchmarks (org.aarribas.bench.NBJmhBenchmark), over a corpus of NBCorpusGenerator.
+ * The train and test documents are written to temporary files, the test lines are also kept in memory and parsed
+ * once for the benchmarks that start from parsed vectors.
+ * The progress messages of training and prediction are not printed while they are measured.
+ */
+public class NBBenchmarkWorkload implements NBWorkload {
+
+	//the top-k benchmark selects from the scores of this many test documents, computed in setUp
+	private static final int SCORED_DOCUMENTS = 64;
+
+	private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	private File trainFile;
+
+	private File testFile;
+
+	private File resultsFile;
+
+	private String[] testLines;
+
+	private NBSparseVector[] vectors;
+
+	private NBModel model;
+
+	private NBScorer scorer;
+
+	private double[][] documentScores;
+
+	private NBVectorParser parser = new NBVectorParser();
+
+	private long checksum;
+
+	private NBVectorHandler checksumHandler = new NBVectorHandler() {
+		public void classLabel(CharSequence text, int start, int end) {
+			checksum += end - start;
+		}
+
+		public void feature(int featureId, double count) {
+			checksum += featureId;
+		}
+	};
+
+	private ThreadLocal<NBTopK> threadTopK = new ThreadLocal<NBTopK>();
+
+	private ThreadLocal<double[]> threadScores = new ThreadLocal<double[]>() {
+		protected double[] initialValue() {
+			return new double[model.getNumberOfClasses()];
+		}
+	};
+
+	public void setUp(int numberOfClasses, int vocabularySize, int numberOfDocuments) throws IOException {
+
+		NBCorpusGenerator generator = new NBCorpusGenerator(numberOfClasses, vocabularySize, 1.1, 60, 42);
+
+		trainFile = File.createTempFile("nb-bench-train", ".txt");
+		testFile = File.createTempFile("nb-bench-test", ".txt");
+		resultsFile = File.createTempFile("nb-bench-results", ".txt");
+
+		generator.writeDocuments(trainFile.getPath(), numberOfDocuments);
+		generator.writeDocuments(testFile.getPath(), numberOfDocuments / 4);
+		testLines = generator.nextDocuments(numberOfDocuments / 4);
+
+		PrintStream out = System.out;
+		System.setOut(DISCARD);
+		try {
+			NBFileProcessor fileProcessor = new NBFileProcessor();
+			fileProcessor.processFile(trainFile.getPath());
+			model = new NBModel(fileProcessor.getNBRawData());
+		} finally {
+			System.setOut(out);
+		}
+		scorer = model;
+
+		vectors = new NBSparseVector[testLines.length];
+		for(int lineIndex = 0; lineIndex < testLines.length; lineIndex++){
+			final NBSparseVector vector = new NBSparseVector();
+			parser.parse(testLines[lineIndex], new NBVectorHandler() {
+				public void classLabel(CharSequence text, int start, int end) {
+				}
+
+				public void feature(int featureId, double count) {
+					vector.add(featureId, count);
+				}
+			});
+			vectors[lineIndex] = vector;
+		}
+
+		documentScores = new double[Math.min(SCORED_DOCUMENTS, vectors.length)][model.getNumberOfClasses()];
+		for(int documentIndex = 0; documentIndex < documentScores.length; documentIndex++){
+			model.score(vectors[documentIndex], documentScores[documentIndex]);
+		}
+	}
+
+	public void tearDown() {
+		trainFile.delete();
+		testFile.delete();
+		resultsFile.delete();
+	}
+
+	public int getNumberOfDocuments() {
+		return vectors.length;
+	}
+
+	/**
+	 * @param scoring double (the model as trained), float or int16 (NBModel.withPrecision), mapped (saved and
+	 * mapped back from a model file, as predict and serve use it), offheap (trained with NBStorage.offHeap()),
+	 * vector (NBModel.withVectorKernel, needs --add-modules jdk.incubator.vector), sparse (NBSparseScorer)
+	 * or sections (NBHierarchicalScorer of the 2 best sections)
+	 */
+	public void setScoring(String scoring) throws IOException {
+
+		if(scoring.equals("double")){
+			scorer = model;
+		}
+		else if(scoring.equals("float")){
+			scorer = model.withPrecision(NBPrecision.FLOAT);
+		}
+		else if(scoring.equals("int16")){
+			scorer = model.withPrecision(NBPrecision.INT16);
+		}
+		else if(scoring.equals("mapped")){
+			File modelFile = File.createTempFile("nb-bench-model", ".bin");
+			modelFile.deleteOnExit();
+			NBModelFile.save(model, modelFile.getPath());
+			scorer = NBModelFile.load(modelFile.getPath());
+		}
+		else if(scoring.equals("offheap")){
+			PrintStream out = System.out;
+			System.setOut(DISCARD);
+			try {
+				NBFileProcessor offHeapProcessor = new NBFileProcessor(new NBRawData(NBStorage.offHeap()));
+				offHeapProcessor.processFile(trainFile.getPath());
+				scorer = new NBModel(offHeapProcessor.getNBRawData());
+			} finally {
+				System.setOut(out);
+			}
+		}
+		else if(scoring.equals("vector")){
+			if(!NBVectorKernel.isAvailable()){
+				throw new IllegalStateException("Vector kernel not available: " + NBVectorKernel.getUnavailableReason() + ".");
+			}
+			scorer = model.withVectorKernel();
+		}
+		else if(scoring.equals("sparse")){
+			scorer = new NBSparseScorer(model);
+		}
+		else if(scoring.equals("sections")){
+			scorer = new NBHierarchicalScorer(model, 2);
+		}
+		else{
+			throw new IllegalArgumentException("Unknown scoring " + scoring + ", expected double, float, int16, mapped, offheap, vector, sparse or sections.");
+		}
+	}
+
+	public long parse(int documentIndex) {
+		parser.parse(testLines[documentIndex], checksumHandler);
+		return checksum;
+	}
+
+	public long train(int numberOfThreads) {
+		PrintStream out = System.out;
+		System.setOut(DISCARD);
+		try {
+			NBFileProcessor processor = new NBFileProcessor();
+			processor.setNumberOfThreads(numberOfThreads);
+			processor.processFile(trainFile.getPath());
+			return processor.getNBRawData().getNumberOfFeatures();
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	public double[] score(int documentIndex) {
+		double[] scores = threadScores.get();
+		scorer.score(vectors[documentIndex], scores);
+		return scores;
+	}
+
+	public int selectTop(int documentIndex, int k) {
+		NBTopK topK = threadTopK.get();
+		if(topK == null || topK.getK() != k){
+			topK = new NBTopK(k);
+			threadTopK.set(topK);
+		}
+		double[] scores = documentScores[documentIndex % documentScores.length];
+		topK.select(scores, scores.length);
+		return topK.getClassId(0);
+	}
+
+	public long predict(int numberOfThreads) {
+		PrintStream out = System.out;
+		System.setOut(DISCARD);
+		try {
+			NBPredictor predictor = new NBPredictor(model);
+			predictor.setScorer(scorer);
+			predictor.setNumberOfThreads(numberOfThreads);
+			predictor.predictAndSave(testFile.getPath(), resultsFile.getPath());
+			return resultsFile.length();
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * @author andresaan
+ * Generates synthetic WIPO-like document vectors for benchmarking.
+ * Classes are spread over the sections A to H and named like WIPO classes (A01, A02, ...).
+ * Feature ids follow a Zipfian distribution over the vocabulary, and every class draws part of
+ * its features from its own band of the vocabulary so that the classes can be told apart.
+ */
+public class NBCorpusGenerator {
+
+	private static final String SECTIONS = "ABCDEFGH";
+
+	private String[] classNames;
+
+	private int vocabularySize;
+
+	private double[] cumulativeProbabilities;
+
+	private int featuresPerDocument;
+
+	private Random random;
+
+	/**
+	 * @param numberOfClasses number of different classes
+	 * @param vocabularySize number of different feature ids
+	 * @param zipfExponent exponent s of the Zipfian distribution (frequency of rank r proportional to 1/r^s)
+	 * @param featuresPerDocument average number of id:count entries per document
+	 * @param seed seed of the random generator, so that corpora can be reproduced
+	 */
+	public NBCorpusGenerator(int numberOfClasses, int vocabularySize, double zipfExponent, int featuresPerDocument, long seed) {
+
+		this.vocabularySize = vocabularySize;
+		this.featuresPerDocument = featuresPerDocument;
+		this.random = new Random(seed);
+
+		classNames = new String[numberOfClasses];
+		int classesPerSection = (numberOfClasses + SECTIONS.length() - 1) / SECTIONS.length();
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			int number = classId % classesPerSection + 1;
+			classNames[classId] = SECTIONS.charAt(classId / classesPerSection) + (number < 10 ? "0" : "") + number;
+		}
+
+		cumulativeProbabilities = new double[vocabularySize];
+		double total = 0;
+		for(int rank = 0; rank < vocabularySize; rank++){
+			total = total + 1d / Math.pow(rank + 1, zipfExponent);
+			cumulativeProbabilities[rank] = total;
+		}
+		for(int rank = 0; rank < vocabularySize; rank++){
+			cumulativeProbabilities[rank] = cumulativeProbabilities[rank] / total;
+		}
+	}
+
+	/**
+	 * @return a feature id drawn from the Zipfian distribution
+	 */
+	private int nextZipfFeature(){
+		int rank = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+		return rank < 0 ? Math.min(-rank - 1, vocabularySize - 1) : rank;
+	}
+
+	/**
+	 * @return one document vector line (without line terminator)
+	 */
+	public String nextDocument(){
+
+		StringBuilder line = new StringBuilder();
+
+		//most documents have one class, some up to three
+		int mainClass = random.nextInt(classNames.length);
+		line.append(classNames[mainClass]);
+		int extraClasses = random.nextInt(10) < 7 ? 0 : 1 + random.nextInt(2);
+		for(int extra = 0; extra < extraClasses; extra++){
+			line.append(',').append(classNames[random.nextInt(classNames.length)]);
+		}
+
+		//half of the features come from the band of the main class, the others from the whole vocabulary
+		int band = Math.max(1, vocabularySize / classNames.length);
+		int numberOfFeatures = 1 + random.nextInt(2 * featuresPerDocument);
+		for(int entry = 0; entry < numberOfFeatures; entry++){
+			int featureId;
+			if(random.nextBoolean()){
+				featureId = (mainClass * band + nextZipfFeature() % band) % vocabularySize;
+			}
+			else{
+				featureId = nextZipfFeature();
+			}
+			line.append(' ').append(featureId).append(':').append(1 + random.nextInt(3));
+		}
+
+		return line.toString();
+	}
+
+	/**
+	 * @param numberOfDocuments
+	 * @return numberOfDocuments document vector lines
+	 */
+	public String[] nextDocuments(int numberOfDocuments){
+		String[] documents = new String[numberOfDocuments];
+		for(int documentIndex = 0; documentIndex < numberOfDocuments; documentIndex++){
+			documents[documentIndex] = nextDocument();
+		}
+		return documents;
+	}
+
+	/**
+	 * Writes numberOfDocuments document vectors to fileName, one per line.
+	 * @param fileName
+	 * @param numberOfDocuments
+	 * @throws IOException
+	 */
+	public void writeDocuments(String fileName, int numberOfDocuments) throws IOException {
+		Writer writer = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+		try {
+			for(int documentIndex = 0; documentIndex < numberOfDocuments; documentIndex++){
+				writer.write(nextDocument());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes a synthetic corpus to a file.
+	 * Arguments: output file, then the options -documents -classes -vocabulary -zipf -features -seed
+	 */
+	public static void main(String[] args) throws IOException {
+
+		NBOptions options = new NBOptions(args);
+		if(options.getNumberOfArguments() < 1){
+			System.out.println("Usage: NBCorpusGenerator <output file> [-documents N] [-classes N] [-vocabulary N] [-zipf S] [-features N] [-seed N]");
+			System.exit(0);
+		}
+
+		NBCorpusGenerator generator = new NBCorpusGenerator(options.getIntOption("classes", 600),
+				options.getIntOption("vocabulary", 200000),
+				Double.parseDouble(options.getOption("zipf", "1.1")),
+				options.getIntOption("features", 60),
+				options.getIntOption("seed", 42));
+		generator.writeDocuments(options.getArgument(0), options.getIntOption("documents", 100000));
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.aarribas.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the hot paths over a synthetic corpus (see NBCorpusGenerator): line parsing, training,
+ * per document scoring, top-k selection and end to end prediction of a test file.
+ * The corpus and its model are built once per trial for every combination of classes and vocabulary;
+ * scoring selects the scorer of score and endToEnd and threads the threads of train and endToEnd,
+ * the other benchmarks are not repeated for them.
+ * Run with gradle jmh (see build.gradle), e.g. -PjmhArgs="score -p classes=600 -p scoring=double,int16".
+ * @author andresaan
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NBJmhBenchmark {
+
+	private static final String WORKLOAD = "NBBenchmarkWorkload";
+
+	/**
+	 * The corpus and the model trained on it, shared by the threads of a trial.
+	 */
+	@State(Scope.Benchmark)
+	public static class Corpus {
+
+		@Param({"64", "600"})
+		public int classes;
+
+		@Param({"20000", "200000"})
+		public int vocabulary;
+
+		@Param({"20000"})
+		public int documents;
+
+		NBWorkload workload;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception
+		{
+			workload = (NBWorkload)Class.forName(WORKLOAD).getDeclaredConstructor().newInstance();
+			workload.setUp(classes, vocabulary, documents);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown()
+		{
+			workload.tearDown();
+		}
+	}
+
+	/**
+	 * How the documents are scored (see NBWorkload.setScoring).
+	 */
+	@State(Scope.Benchmark)
+	public static class Scoring {
+
+		@Param({"double"})
+		public String scoring;
+
+		@Setup(Level.Trial)
+		public void setUp(Corpus corpus) throws IOException
+		{
+			corpus.workload.setScoring(scoring);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Threads {
+
+		@Param({"1"})
+		public int threads;
+	}
+
+	/**
+	 * Walks the test documents in order, one per call, so that a call does not always see the same document.
+	 */
+	@State(Scope.Thread)
+	public static class Documents {
+
+		private int next;
+
+		int next(Corpus corpus)
+		{
+			int documentIndex = next;
+			next = next + 1 == corpus.workload.getNumberOfDocuments() ? 0 : next + 1;
+			return documentIndex;
+		}
+	}
+
+	@Benchmark
+	public long parse(Corpus corpus, Documents documents)
+	{
+		return corpus.workload.parse(documents.next(corpus));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long train(Corpus corpus, Threads threads)
+	{
+		return corpus.workload.train(threads.threads);
+	}
+
+	@Benchmark
+	public double[] score(Corpus corpus, Scoring scoring, Documents documents)
+	{
+		return corpus.workload.score(documents.next(corpus));
+	}
+
+	@Benchmark
+	public int top3(Corpus corpus, Documents documents)
+	{
+		return corpus.workload.selectTop(documents.next(corpus), 3);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long endToEnd(Corpus corpus, Scoring scoring, Threads threads)
+	{
+		return corpus.workload.predict(threads.threads);
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.aarribas.bench;
+
+import java.io.IOException;
+
+/**
+ * The classifier as measured by NBJmhBenchmark: a synthetic corpus, the model trained on it and the operations
+ * timed by the benchmarks. JMH only accepts benchmarks in a named package and the classifier lives in the
+ * default package, which a named package can not refer to, so the implementation (NBBenchmarkWorkload, next to
+ * NBCorpusGenerator) is loaded by name once per trial and the measured calls go through this interface.
+ * @author andresaan
+ *
+ */
+public interface NBWorkload {
+
+	/**
+	 * Generates the corpus with NBCorpusGenerator, writes its train and test files and trains the model on them.
+	 * @param numberOfClasses
+	 * @param vocabularySize
+	 * @param numberOfDocuments number of train documents, the test documents are a quarter of them
+	 * @throws IOException
+	 */
+	public void setUp(int numberOfClasses, int vocabularySize, int numberOfDocuments) throws IOException;
+
+	/**
+	 * Deletes the files of the corpus.
+	 */
+	public void tearDown();
+
+	/**
+	 * @return number of test documents
+	 */
+	public int getNumberOfDocuments();
+
+	/**
+	 * Selects how score and predict compute the scores of a document.
+	 * @param scoring double, float, int16, mapped, offheap, vector, sparse or sections (see NBBenchmarkWorkload)
+	 * @throws IOException if the model could not be saved and mapped back
+	 */
+	public void setScoring(String scoring) throws IOException;
+
+	/**
+	 * Parses the line of a test document.
+	 * @param documentIndex
+	 * @return a checksum of the parsed label and features
+	 */
+	public long parse(int documentIndex);
+
+	/**
+	 * Trains a new model on the train file.
+	 * @param numberOfThreads
+	 * @return the number of features of the model
+	 */
+	public long train(int numberOfThreads);
+
+	/**
+	 * Scores a parsed test document with every class.
+	 * @param documentIndex
+	 * @return the scores, overwritten by the next call
+	 */
+	public double[] score(int documentIndex);
+
+	/**
+	 * Selects the k best classes from the scores of a test document, computed once in setUp.
+	 * @param documentIndex
+	 * @param k
+	 * @return the best class
+	 */
+	public int selectTop(int documentIndex, int k);
+
+	/**
+	 * Predicts the test file end to end, from its lines to the results file.
+	 * @param numberOfThreads
+	 * @return the length of the results file
+	 */
+	public long predict(int numberOfThreads);
+
+}
@@ -0,0 +1,92 @@
+
+
+/**
+ * @author andresaan
+ * NBLogProbTable kept on the heap as a single array of doubles, row after row.
+ */
+public class NBArrayLogProbTable implements NBWritableLogProbTable {
+
+	private double[] values;
+
+	private int numberOfRows;
+
+	private int numberOfColumns;
+
+	/**
+	 * @param values numberOfRows * numberOfColumns values, row after row
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 */
+	public NBArrayLogProbTable(double[] values, int numberOfRows, int numberOfColumns) {
+		this.values = values;
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+	}
+
+	public NBPrecision getPrecision() {
+		return NBPrecision.DOUBLE;
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	//storage for other kernels (see NBVectorKernel)
+	double[] getValues() {
+		return values;
+	}
+
+	public double get(int row, int column) {
+		return values[row * numberOfColumns + column];
+	}
+
+	public void set(int row, int column, double value) {
+		values[row * numberOfColumns + column] = value;
+	}
+
+	public void setRow(int row, double[] rowValues) {
+		System.arraycopy(rowValues, 0, values, row * numberOfColumns, numberOfColumns);
+	}
+
+	public void addRow(int row, double weight, double[] accumulators) {
+		addRow(row, weight, accumulators, 0, numberOfColumns);
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int fromColumn, int toColumn) {
+		int offset = row * numberOfColumns;
+		for(int column = fromColumn; column < toColumn; column++){
+			accumulators[column] = accumulators[column] + values[offset + column]*weight;
+		}
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+		int offset = row * numberOfColumns;
+		for(int index = 0; index < numberOfSelectedColumns; index++){
+			int column = columns[index];
+			accumulators[column] = accumulators[column] + values[offset + column]*weight;
+		}
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators) {
+		for(int index = 0; index < numberOfGivenRows; index++){
+			addRow(rows[index], weights[index], accumulators);
+		}
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int fromColumn, int toColumn) {
+		for(int index = 0; index < numberOfGivenRows; index++){
+			addRow(rows[index], weights[index], accumulators, fromColumn, toColumn);
+		}
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+		for(int index = 0; index < numberOfGivenRows; index++){
+			addRow(rows[index], weights[index], accumulators, columns, numberOfSelectedColumns);
+		}
+	}
+
+}
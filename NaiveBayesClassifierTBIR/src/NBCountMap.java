@@ -0,0 +1,40 @@
+
+
+/**
+ * @author andresaan
+ * Counts per key (feature slot -> count of a class), stored on the heap (NBIntIntMap)
+ * or outside of it (NBOffHeapIntIntMap), see NBStorage.
+ * Entries are iterated over the internal slots: for every slot below capacity() that isUsed, keyAt and valueAt.
+ * Integer.MIN_VALUE can not be used as a key.
+ */
+public interface NBCountMap {
+
+	/**
+	 * @param key
+	 * @param defaultValue value to return if the key is not in the map
+	 * @return the value for key, or defaultValue
+	 */
+	public int get(int key, int defaultValue);
+
+	/**
+	 * Adds delta to the value for key (a missing key is considered to be 0).
+	 * @param key
+	 * @param delta
+	 * @return the updated value
+	 */
+	public int add(int key, int delta);
+
+	public int size();
+
+	/**
+	 * Number of internal slots, to iterate with isUsed, keyAt and valueAt.
+	 */
+	public int capacity();
+
+	public boolean isUsed(int slot);
+
+	public int keyAt(int slot);
+
+	public int valueAt(int slot);
+
+}
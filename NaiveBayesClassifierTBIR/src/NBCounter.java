@@ -0,0 +1,25 @@
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * @author andresaan
+ * Monotonic count of events (lines read, documents predicted...), safe to update from several threads.
+ * The count is striped (LongAdder) so that threads incrementing it at the same time do not contend.
+ */
+public class NBCounter {
+
+	private LongAdder count = new LongAdder();
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long delta) {
+		count.add(delta);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+}
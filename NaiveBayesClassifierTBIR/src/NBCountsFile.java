@@ -0,0 +1,231 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * @author andresaan
+ * Saves the raw counts of an NBRawData to a binary file and loads them back,
+ * so that new documents can be added to them later without reprocessing the whole corpus.
+ * Class ids, section ids and feature slots are kept, so a model finalized from the saved counts
+ * can be refreshed from the loaded ones (see NBModel(NBModel, NBRawData)).
+ * The file also records the feature selection the model of the counts was pruned with, so that updates prune the same way.
+ * Files of version 1 are still loaded; their document frequencies are estimated as the total count of
+ * each feature, an upper bound (so pruning by document frequency keeps more features than it should).
+ * Files of versions 1 and 2 do not record the feature selection.
+ *
+ * Layout (big endian, as written by DataOutputStream):
+ *   int magic, int version
+ *   int min class count, int min document frequency, int top features, int criterion ordinal (since version 3)
+ *   int sections, sections x (char name, int documents)
+ *   int features, features x int feature id
+ *   features x int document frequency (since version 2)
+ *   int classes, classes x (UTF class name, int documents, int entries, entries x (int slot, int count))
+ */
+public class NBCountsFile {
+
+	public static final int MAGIC = 0x4E424354;
+
+	public static final int VERSION = 3;
+
+	/**
+	 * Saves the counts of a model finalized without pruning (see save(NBRawData, NBFeatureSelection, String)).
+	 * @param rawData
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public static void save(NBRawData rawData, String fileName) throws IOException {
+		save(rawData, new NBFeatureSelection(), fileName);
+	}
+
+	/**
+	 * Saves the counts to fileName, replacing the file if it exists.
+	 * The counts are written to a temporary file first and then moved over fileName,
+	 * so a failed save leaves the previous counts untouched instead of a truncated file.
+	 * @param rawData
+	 * @param selection settings the model of the counts was pruned with
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public static void save(NBRawData rawData, NBFeatureSelection selection, String fileName) throws IOException {
+
+		File target = new File(fileName).getAbsoluteFile();
+		File temporary = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		try {
+			write(rawData, selection, temporary);
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	private static void write(NBRawData rawData, NBFeatureSelection selection, File target) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(selection.getMinClassCount());
+			out.writeInt(selection.getMinDocumentFrequency());
+			out.writeInt(selection.getTopFeatures());
+			out.writeInt(selection.getCriterion().ordinal());
+
+			out.writeInt(rawData.getNumberOfSections());
+			for(int sectionId = 0; sectionId < rawData.getNumberOfSections(); sectionId++){
+				out.writeChar(rawData.getSectionName(sectionId));
+				out.writeInt(rawData.getSectionTotalCount(sectionId));
+			}
+
+			out.writeInt(rawData.getNumberOfFeatures());
+			for(int slot = 0; slot < rawData.getNumberOfFeatures(); slot++){
+				out.writeInt(rawData.getFeatureId(slot));
+			}
+			for(int slot = 0; slot < rawData.getNumberOfFeatures(); slot++){
+				out.writeInt(rawData.getFeatureDocumentCount(slot));
+			}
+
+			out.writeInt(rawData.getNumberOfClasses());
+			for(int classId = 0; classId < rawData.getNumberOfClasses(); classId++){
+				out.writeUTF(rawData.getClassName(classId));
+				out.writeInt(rawData.getClassTotalCount(classId));
+
+				NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+				out.writeInt(featureCounts.size());
+				for(int entry = 0; entry < featureCounts.capacity(); entry++){
+					if(featureCounts.isUsed(entry)){
+						out.writeInt(featureCounts.keyAt(entry));
+						out.writeInt(featureCounts.valueAt(entry));
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads counts saved with save. All the classes of the loaded data are marked as unchanged.
+	 * @param fileName
+	 * @return the counts
+	 * @throws IOException if the file can not be read or is not a counts file of a supported version
+	 */
+	public static NBRawData load(String fileName) throws IOException {
+		return load(fileName, NBStorage.heap());
+	}
+
+	/**
+	 * Same as load(String), keeping the counts per class in the given storage.
+	 * @param fileName
+	 * @param storage
+	 * @return the counts
+	 * @throws IOException if the file can not be read or is not a counts file of a supported version
+	 */
+	public static NBRawData load(String fileName, NBStorage storage) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+		try {
+			int version = readVersion(in, fileName);
+			if(version >= 3){
+				readFeatureSelection(in);
+			}
+
+			NBRawData rawData = new NBRawData(storage);
+
+			int numberOfSections = in.readInt();
+			for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+				rawData.addSectionCount(rawData.addSection(in.readChar()), in.readInt());
+			}
+
+			int numberOfFeatures = in.readInt();
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				rawData.addFeature(in.readInt());
+			}
+			if(version != 1){
+				for(int slot = 0; slot < numberOfFeatures; slot++){
+					rawData.addFeatureDocumentCount(slot, in.readInt());
+				}
+			}
+
+			int numberOfClasses = in.readInt();
+			for(int classIndex = 0; classIndex < numberOfClasses; classIndex++){
+				int classId = rawData.addClass(in.readUTF());
+				rawData.addClassCount(classId, in.readInt());
+
+				int numberOfEntries = in.readInt();
+				for(int entry = 0; entry < numberOfEntries; entry++){
+					rawData.addClassFeatureCount(classId, in.readInt(), in.readInt());
+				}
+			}
+
+			if(version == 1){
+				estimateDocumentCounts(rawData);
+			}
+
+			rawData.resetChangedClasses();
+			return rawData;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the feature selection recorded in the header of a counts file.
+	 * @param fileName
+	 * @return the settings the model of the counts was pruned with, or null if the file does not record them (before version 3)
+	 * @throws IOException if the file can not be read or is not a counts file of a supported version
+	 */
+	public static NBFeatureSelection loadFeatureSelection(String fileName) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 64));
+		try {
+			return readVersion(in, fileName) >= 3 ? readFeatureSelection(in) : null;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int readVersion(DataInputStream in, String fileName) throws IOException {
+		if(in.readInt() != MAGIC){
+			throw new IOException("The file " + fileName + " is not a counts file.");
+		}
+		int version = in.readInt();
+		if(version < 1 || version > VERSION){
+			throw new IOException("The counts file " + fileName + " has version " + version + ", expected 1 to " + VERSION + ".");
+		}
+		return version;
+	}
+
+	private static NBFeatureSelection readFeatureSelection(DataInputStream in) throws IOException {
+		NBFeatureSelection selection = new NBFeatureSelection();
+		selection.setMinClassCount(in.readInt());
+		selection.setMinDocumentFrequency(in.readInt());
+		selection.setTopFeatures(in.readInt());
+		int criterion = in.readInt();
+		if(criterion < 0 || criterion >= NBFeatureSelection.Criterion.values().length){
+			throw new IOException("Unknown feature selection criterion " + criterion + " in the counts file.");
+		}
+		selection.setCriterion(NBFeatureSelection.Criterion.values()[criterion]);
+		return selection;
+	}
+
+	//a document adds at least one to the count of each feature it has, so the total count bounds the document frequency
+	private static void estimateDocumentCounts(NBRawData rawData){
+		for(int classId = 0; classId < rawData.getNumberOfClasses(); classId++){
+			NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+			for(int entry = 0; entry < featureCounts.capacity(); entry++){
+				if(featureCounts.isUsed(entry)){
+					rawData.addFeatureDocumentCount(featureCounts.keyAt(entry), featureCounts.valueAt(entry));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * @author andresaan
+ * k-fold cross-validation over the documents of one labelled file, parsed once (see NBDocumentSet).
+ * Document d belongs to fold d % k. Each fold trains a model on the documents of the other folds
+ * (pruned and converted as configured) and predicts its own documents; the folds run on a pool of threads.
+ * A prediction is correct at top-1 when the best class is one of the classes of the document,
+ * and at top-k when any of the k best classes is.
+ */
+public class NBCrossValidation {
+
+	private int numberOfFolds;
+
+	private int numberOfThreads = 1;
+
+	private int k = 3;
+
+	private NBFeatureSelection featureSelection = new NBFeatureSelection();
+
+	private NBPrecision precision = NBPrecision.DOUBLE;
+
+	private NBStorage storage = NBStorage.heap();
+
+	private List<FoldResult> results = new ArrayList<FoldResult>();
+
+	private NBTimer foldTimer = NBMetrics.getDefault().timer("evaluate.fold");
+
+	/**
+	 * @param numberOfFolds number of folds (at least 2)
+	 */
+	public NBCrossValidation(int numberOfFolds) {
+		if(numberOfFolds < 2){
+			throw new IllegalArgumentException("Cross-validation needs at least 2 folds, got " + numberOfFolds + ".");
+		}
+		this.numberOfFolds = numberOfFolds;
+	}
+
+	/**
+	 * Sets the number of folds evaluated at the same time (1 by default).
+	 * Every running fold holds its own counts and model in memory.
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
+
+	/**
+	 * @param k number of best classes checked for the top-k accuracy (3 by default)
+	 */
+	public void setK(int k) {
+		this.k = Math.max(1, k);
+	}
+
+	/**
+	 * @param featureSelection pruning applied to the counts of every fold (copied, none by default)
+	 */
+	public void setFeatureSelection(NBFeatureSelection featureSelection) {
+		this.featureSelection = featureSelection;
+	}
+
+	/**
+	 * @param precision precision of the model of every fold (double by default)
+	 */
+	public void setPrecision(NBPrecision precision) {
+		this.precision = precision;
+	}
+
+	/**
+	 * @param storage storage of the counts and model table of every fold (the heap by default)
+	 */
+	public void setStorage(NBStorage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Result of one fold.
+	 */
+	public static class FoldResult {
+
+		int fold;
+
+		int trainDocuments;
+
+		int testDocuments;
+
+		//test documents with at least one class
+		int labelledDocuments;
+
+		int top1Correct;
+
+		int topKCorrect;
+
+		int numberOfFeatures;
+
+		long trainNanos;
+
+		long testNanos;
+
+		String selectionReport;
+
+		public double getTop1Accuracy() {
+			return ratio(top1Correct, labelledDocuments);
+		}
+
+		public double getTopKAccuracy() {
+			return ratio(topKCorrect, labelledDocuments);
+		}
+	}
+
+	/**
+	 * Evaluates every fold. The results of a previous call are replaced.
+	 * @param documents
+	 * @return the results, in fold order
+	 */
+	public List<FoldResult> evaluate(final NBDocumentSet documents){
+
+		results.clear();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numberOfThreads, numberOfFolds));
+		try {
+			List<Future<FoldResult>> pendingFolds = new ArrayList<Future<FoldResult>>();
+			for(int fold = 0; fold < numberOfFolds; fold++){
+				final int evaluatedFold = fold;
+				pendingFolds.add(executor.submit(new Callable<FoldResult>() {
+					public FoldResult call() {
+						return evaluateFold(documents, evaluatedFold);
+					}
+				}));
+			}
+
+			for(Future<FoldResult> pendingFold : pendingFolds){
+				FoldResult result = pendingFold.get();
+				System.out.println(String.format("Fold %d/%d: top-1 %.4f, top-%d %.4f", result.fold + 1, numberOfFolds,
+						result.getTop1Accuracy(), k, result.getTopKAccuracy()));
+				results.add(result);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a fold.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Evaluation of a fold failed.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/**
+	 * Trains on the documents of the other folds and predicts the documents of the fold.
+	 */
+	private FoldResult evaluateFold(NBDocumentSet documents, int fold){
+
+		FoldResult result = new FoldResult();
+		result.fold = fold;
+		int numberOfDocuments = documents.getNumberOfDocuments();
+
+		//count the other folds, in file order, and finalize their model
+		long start = System.nanoTime();
+		NBRawData rawData = new NBRawData(storage);
+		int[] classIds = new int[Math.max(1, documents.getMaxLabelsPerDocument())];
+		for(int document = 0; document < numberOfDocuments; document++){
+			if(document % numberOfFolds != fold){
+				documents.addTo(document, rawData, classIds);
+				result.trainDocuments++;
+			}
+		}
+
+		NBFeatureSelection selection = new NBFeatureSelection(featureSelection);
+		if(selection.isEnabled()){
+			rawData = selection.prune(rawData);
+			result.selectionReport = selection.getReport();
+		}
+		NBModel model = new NBModel(rawData).withPrecision(precision);
+		result.numberOfFeatures = model.getNumberOfFeatures();
+		long trained = System.nanoTime();
+		result.trainNanos = trained - start;
+
+		//label id of each class of the model, to check the predictions without comparing names
+		int[] classLabels = new int[model.getNumberOfClasses()];
+		for(int classId = 0; classId < classLabels.length; classId++){
+			classLabels[classId] = documents.getLabelId(model.getClassName(classId));
+		}
+
+		NBSparseVector vector = new NBSparseVector();
+		double[] scores = new double[model.getNumberOfClasses()];
+		NBTopK topK = new NBTopK(k);
+		for(int document = fold; document < numberOfDocuments; document += numberOfFolds){
+
+			documents.getVector(document, vector);
+			model.score(vector, scores);
+			topK.select(scores, scores.length);
+			result.testDocuments++;
+
+			if(documents.getNumberOfLabels(document) == 0){
+				continue;
+			}
+			result.labelledDocuments++;
+			for(int rank = 0; rank < topK.size(); rank++){
+				if(documents.hasLabel(document, classLabels[topK.getClassId(rank)])){
+					if(rank == 0){
+						result.top1Correct++;
+					}
+					result.topKCorrect++;
+					break;
+				}
+			}
+		}
+		result.testNanos = System.nanoTime() - trained;
+		foldTimer.recordSince(start);
+
+		return result;
+	}
+
+	/**
+	 * @return a human readable report of the last evaluation: every fold, then the mean and
+	 * standard deviation of the accuracies over the folds and the accuracies over all the documents
+	 */
+	public String getReport(){
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-5s %9s %9s %9s %8s %8s %10s %12s %10s %12s%n", "fold", "train", "test", "features",
+				"top-1", "top-" + k, "train s", "train doc/s", "test s", "test doc/s"));
+
+		long labelledDocuments = 0;
+		long top1Correct = 0;
+		long topKCorrect = 0;
+		double[] top1 = new double[results.size()];
+		double[] topKs = new double[results.size()];
+		for(int index = 0; index < results.size(); index++){
+			FoldResult result = results.get(index);
+			report.append(String.format("%-5d %9d %9d %9d %8.4f %8.4f %10.2f %12.0f %10.2f %12.0f%n", result.fold + 1,
+					result.trainDocuments, result.testDocuments, result.numberOfFeatures,
+					result.getTop1Accuracy(), result.getTopKAccuracy(),
+					result.trainNanos / 1e9, result.trainDocuments * 1e9 / Math.max(1, result.trainNanos),
+					result.testNanos / 1e9, result.testDocuments * 1e9 / Math.max(1, result.testNanos)));
+
+			labelledDocuments += result.labelledDocuments;
+			top1Correct += result.top1Correct;
+			topKCorrect += result.topKCorrect;
+			top1[index] = result.getTop1Accuracy();
+			topKs[index] = result.getTopKAccuracy();
+		}
+
+		report.append(String.format("Top-1 accuracy: %.4f (mean over folds %.4f +- %.4f)%n",
+				ratio(top1Correct, labelledDocuments), mean(top1), standardDeviation(top1)));
+		report.append(String.format("Top-%d accuracy: %.4f (mean over folds %.4f +- %.4f)%n",
+				k, ratio(topKCorrect, labelledDocuments), mean(topKs), standardDeviation(topKs)));
+
+		if(!results.isEmpty() && results.get(0).selectionReport != null){
+			report.append("Pruning of the first fold: ").append(results.get(0).selectionReport).append('\n');
+		}
+		return report.toString();
+	}
+
+	private static double mean(double[] values){
+		double total = 0;
+		for(double value : values){
+			total = total + value;
+		}
+		return values.length == 0 ? 0d : total / values.length;
+	}
+
+	private static double standardDeviation(double[] values){
+		if(values.length < 2){
+			return 0d;
+		}
+		double mean = mean(values);
+		double total = 0;
+		for(double value : values){
+			total = total + (value - mean) * (value - mean);
+		}
+		return Math.sqrt(total / (values.length - 1));
+	}
+
+	private static double ratio(long numerator, long denominator){
+		return denominator == 0 ? 0d : (double)numerator / denominator;
+	}
+
+}
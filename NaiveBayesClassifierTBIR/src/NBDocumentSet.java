@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.aarribas.io.ByteLineProcessor;
+import org.aarribas.io.MappedFileReader;
+
+
+/**
+ * @author andresaan
+ * Labelled document vectors parsed once and kept in memory, so that several models can be trained and
+ * tested on subsets of them (see NBCrossValidation) without reading the text again.
+ * Documents keep the order of the file. Labels are stored as ids, features and counts in flat arrays.
+ * Once loaded, the set is only read, so it can be shared by several threads.
+ */
+public class NBDocumentSet {
+
+	private NBLabelDictionary labels = new NBLabelDictionary();
+
+	//labels of document d are labelIdsPerDocument[labelStarts[d]] to labelIdsPerDocument[labelStarts[d + 1] - 1]
+	private int[] labelStarts = new int[1024];
+
+	private int[] labelIdsPerDocument = new int[1024];
+
+	//same for the features and their counts
+	private int[] featureStarts = new int[1024];
+
+	private int[] featureIds = new int[1 << 16];
+
+	private int[] featureCounts = new int[1 << 16];
+
+	private int numberOfDocuments;
+
+	private int numberOfLabelEntries;
+
+	private int numberOfFeatureEntries;
+
+	/**
+	 * Parses every line of the file (classes followed by id:count entries, as in a train file).
+	 * @param fileName
+	 * @return the documents of the file
+	 * @throws IOException if the file can not be read
+	 * @throws NumberFormatException if a feature count is not an integer
+	 */
+	public static NBDocumentSet load(String fileName) throws IOException {
+
+		final NBDocumentSet documents = new NBDocumentSet();
+		final NBVectorParser parser = new NBVectorParser();
+		final NBVectorHandler handler = new NBVectorHandler() {
+			public void classLabel(CharSequence text, int start, int end) {
+				documents.addLabel(text, start, end);
+			}
+
+			public void feature(int featureId, double count) {
+				int featureCount = (int)count;
+				if(featureCount != count){
+					throw new NumberFormatException("Feature counts of the train file must be integers, got " + count + ".");
+				}
+				documents.addFeature(featureId, featureCount);
+			}
+		};
+
+		new MappedFileReader(fileName).processFile(new ByteLineProcessor() {
+			public void processLine(ByteBuffer buffer, int lineStart, int lineEnd) {
+				parser.parse(buffer, lineStart, lineEnd, handler);
+				documents.endDocument();
+			}
+		});
+		return documents;
+	}
+
+	private void addLabel(CharSequence text, int start, int end){
+		int labelId = labels.add(text, start, end);
+		if(numberOfLabelEntries == labelIdsPerDocument.length){
+			labelIdsPerDocument = Arrays.copyOf(labelIdsPerDocument, numberOfLabelEntries << 1);
+		}
+		labelIdsPerDocument[numberOfLabelEntries++] = labelId;
+	}
+
+	private void addFeature(int featureId, int count){
+		if(numberOfFeatureEntries == featureIds.length){
+			featureIds = Arrays.copyOf(featureIds, numberOfFeatureEntries << 1);
+			featureCounts = Arrays.copyOf(featureCounts, numberOfFeatureEntries << 1);
+		}
+		featureIds[numberOfFeatureEntries] = featureId;
+		featureCounts[numberOfFeatureEntries] = count;
+		numberOfFeatureEntries++;
+	}
+
+	private void endDocument(){
+		numberOfDocuments++;
+		if(numberOfDocuments == labelStarts.length){
+			labelStarts = Arrays.copyOf(labelStarts, numberOfDocuments << 1);
+			featureStarts = Arrays.copyOf(featureStarts, numberOfDocuments << 1);
+		}
+		labelStarts[numberOfDocuments] = numberOfLabelEntries;
+		featureStarts[numberOfDocuments] = numberOfFeatureEntries;
+	}
+
+	public int getNumberOfDocuments() {
+		return numberOfDocuments;
+	}
+
+	public int getNumberOfLabels() {
+		return labels.size();
+	}
+
+	public String getLabel(int labelId) {
+		return labels.getName(labelId);
+	}
+
+	/**
+	 * @param label
+	 * @return the id of the label, or -1 if no document has it
+	 */
+	public int getLabelId(String label) {
+		return labels.getId(label);
+	}
+
+	/**
+	 * @param document
+	 * @param labelId
+	 * @return whether the document has the label
+	 */
+	public boolean hasLabel(int document, int labelId) {
+		for(int entry = labelStarts[document]; entry < labelStarts[document + 1]; entry++){
+			if(labelIdsPerDocument[entry] == labelId){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getNumberOfLabels(int document) {
+		return labelStarts[document + 1] - labelStarts[document];
+	}
+
+	/**
+	 * Adds the counts of the document to rawData, in the same order as NBFileProcessor does for its line,
+	 * so counting a subset of the documents gives the same counts as processing a file with their lines.
+	 * @param document
+	 * @param rawData
+	 * @param classIds buffer for the class ids of the document (at least getNumberOfLabels(document) long)
+	 */
+	public void addTo(int document, NBRawData rawData, int[] classIds) {
+
+		rawData.startDocument();
+		int numberOfClasses = 0;
+		for(int entry = labelStarts[document]; entry < labelStarts[document + 1]; entry++){
+			classIds[numberOfClasses++] = rawData.addClass(labels.getName(labelIdsPerDocument[entry]));
+		}
+		rawData.addClassesCounts(classIds, numberOfClasses);
+		rawData.addSectionsCounts(classIds, numberOfClasses);
+
+		for(int entry = featureStarts[document]; entry < featureStarts[document + 1]; entry++){
+			rawData.addFeatureCount(featureIds[entry], featureCounts[entry], classIds, numberOfClasses);
+		}
+	}
+
+	/**
+	 * Fills vector with the features of the document, as NBPredictor parses them from its line.
+	 * @param document
+	 * @param vector cleared first
+	 */
+	public void getVector(int document, NBSparseVector vector) {
+		vector.clear();
+		for(int entry = featureStarts[document]; entry < featureStarts[document + 1]; entry++){
+			vector.add(featureIds[entry], featureCounts[entry]);
+		}
+	}
+
+	/**
+	 * @return the largest number of labels of a document
+	 */
+	public int getMaxLabelsPerDocument() {
+		int max = 0;
+		for(int document = 0; document < numberOfDocuments; document++){
+			max = Math.max(max, getNumberOfLabels(document));
+		}
+		return max;
+	}
+
+}
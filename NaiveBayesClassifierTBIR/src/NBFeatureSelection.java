@@ -0,0 +1,313 @@
+import java.util.Arrays;
+
+
+/**
+ * @author andresaan
+ * Training time pruning of the features, applied to the raw counts before the model is finalized
+ * so that the table of log probabilities only keeps informative features (and fits in the caches when scoring).
+ * The stages are applied in this order:
+ *   1. entries (feature, class) with a count below minClassCount are dropped,
+ *   2. features observed in less than minDocumentFrequency documents are dropped,
+ *   3. only the topFeatures features with the best score (chi-square or information gain) are kept.
+ * The pruned counts still add to the totals of their classes, so the kept features keep (almost) the
+ * probabilities they had, and pruned features get the unseen feature probability when scoring.
+ */
+public class NBFeatureSelection {
+
+	public enum Criterion {
+		CHI_SQUARE,
+		INFORMATION_GAIN
+	}
+
+	private int minClassCount = 1;
+
+	private int minDocumentFrequency = 1;
+
+	private int topFeatures = 0;
+
+	private Criterion criterion = Criterion.CHI_SQUARE;
+
+	private String report = "";
+
+	public NBFeatureSelection() {
+	}
+
+	/**
+	 * Creates a selection with the same settings as other (e.g. one per thread, as prune keeps its report).
+	 * @param other
+	 */
+	public NBFeatureSelection(NBFeatureSelection other) {
+		this.minClassCount = other.minClassCount;
+		this.minDocumentFrequency = other.minDocumentFrequency;
+		this.topFeatures = other.topFeatures;
+		this.criterion = other.criterion;
+	}
+
+	/**
+	 * @param minClassCount minimum count of a feature in a class for the class to keep it (1 keeps everything)
+	 */
+	public void setMinClassCount(int minClassCount) {
+		this.minClassCount = Math.max(1, minClassCount);
+	}
+
+	/**
+	 * @param minDocumentFrequency minimum number of documents a feature must be observed in (1 keeps everything)
+	 */
+	public void setMinDocumentFrequency(int minDocumentFrequency) {
+		this.minDocumentFrequency = Math.max(1, minDocumentFrequency);
+	}
+
+	/**
+	 * @param topFeatures number of features kept by score (0 keeps all the features left by the other stages)
+	 */
+	public void setTopFeatures(int topFeatures) {
+		this.topFeatures = Math.max(0, topFeatures);
+	}
+
+	public void setCriterion(Criterion criterion) {
+		this.criterion = criterion;
+	}
+
+	public int getMinClassCount() {
+		return minClassCount;
+	}
+
+	public int getMinDocumentFrequency() {
+		return minDocumentFrequency;
+	}
+
+	public int getTopFeatures() {
+		return topFeatures;
+	}
+
+	public Criterion getCriterion() {
+		return criterion;
+	}
+
+	/**
+	 * @return the settings, as the command line options giving them
+	 */
+	public String getDescription() {
+		return "-min-count " + minClassCount + " -min-df " + minDocumentFrequency + " -top " + topFeatures
+				+ " -criterion " + (criterion == Criterion.CHI_SQUARE ? "chi2" : "ig");
+	}
+
+	/**
+	 * @return whether any stage would prune something
+	 */
+	public boolean isEnabled() {
+		return minClassCount > 1 || minDocumentFrequency > 1 || topFeatures > 0;
+	}
+
+	/**
+	 * @return summary of the last pruning: features, (feature, class) entries and size of the model table before and after
+	 */
+	public String getReport() {
+		return report;
+	}
+
+	/**
+	 * Returns pruned counts. Classes and sections keep their ids, and the kept features their relative order,
+	 * so models finalized from rawData and from the pruned counts can be compared class by class.
+	 * @param rawData counts to prune (left unchanged)
+	 * @return the pruned counts
+	 */
+	public NBRawData prune(NBRawData rawData){
+
+		int numberOfClasses = rawData.getNumberOfClasses();
+		int numberOfFeatures = rawData.getNumberOfFeatures();
+
+		//1. counts per feature after dropping the small (feature, class) entries
+		long[] featureTotals = new long[numberOfFeatures];
+		long entriesBefore = 0;
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+			entriesBefore = entriesBefore + featureCounts.size();
+			for(int entry = 0; entry < featureCounts.capacity(); entry++){
+				if(featureCounts.isUsed(entry) && featureCounts.valueAt(entry) >= minClassCount){
+					featureTotals[featureCounts.keyAt(entry)] += featureCounts.valueAt(entry);
+				}
+			}
+		}
+
+		//2. features left with some count and frequent enough
+		boolean[] kept = new boolean[numberOfFeatures];
+		int numberOfKept = 0;
+		for(int slot = 0; slot < numberOfFeatures; slot++){
+			kept[slot] = featureTotals[slot] > 0 && rawData.getFeatureDocumentCount(slot) >= minDocumentFrequency;
+			if(kept[slot]){
+				numberOfKept++;
+			}
+		}
+
+		//3. the best features by score
+		if(topFeatures > 0 && numberOfKept > topFeatures){
+			double[] scores = computeScores(rawData, featureTotals, kept);
+			double[] keptScores = new double[numberOfKept];
+			int index = 0;
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				if(kept[slot]){
+					keptScores[index++] = scores[slot];
+				}
+			}
+			Arrays.sort(keptScores);
+			double threshold = keptScores[numberOfKept - topFeatures];
+
+			//features above the threshold first, then the ties in slot order until topFeatures are kept
+			int tiesToKeep = topFeatures;
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				if(kept[slot] && scores[slot] > threshold){
+					tiesToKeep--;
+				}
+			}
+			numberOfKept = 0;
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				if(kept[slot]){
+					if(scores[slot] < threshold || scores[slot] == threshold && tiesToKeep-- <= 0){
+						kept[slot] = false;
+					}
+					else{
+						numberOfKept++;
+					}
+				}
+			}
+		}
+
+		NBRawData pruned = copyKept(rawData, kept);
+
+		long entriesAfter = 0;
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			entriesAfter = entriesAfter + pruned.getFeatureCounts(classId).size();
+		}
+		report = String.format("Features: %d -> %d, entries (feature, class): %d -> %d, table: %.1f MB -> %.1f MB",
+				numberOfFeatures, pruned.getNumberOfFeatures(), entriesBefore, entriesAfter,
+				(double)numberOfFeatures * numberOfClasses * 8 / (1 << 20),
+				(double)pruned.getNumberOfFeatures() * numberOfClasses * 8 / (1 << 20));
+
+		return pruned;
+	}
+
+	/**
+	 * Scores the kept features from the (feature, class) counts, every occurrence of a feature being one event.
+	 * Chi-square: maximum over the classes the feature is observed with of the chi-square statistic of the
+	 * 2x2 table (feature or not, class or not).
+	 * Information gain: reduction of the entropy of the class given whether the feature occurs.
+	 */
+	private double[] computeScores(NBRawData rawData, long[] featureTotals, boolean[] kept){
+
+		int numberOfClasses = rawData.getNumberOfClasses();
+		int numberOfFeatures = rawData.getNumberOfFeatures();
+
+		//the totals only take the entries kept by stage 1
+		double[] classTotals = new double[numberOfClasses];
+		double total = 0;
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+			for(int entry = 0; entry < featureCounts.capacity(); entry++){
+				if(featureCounts.isUsed(entry) && featureCounts.valueAt(entry) >= minClassCount){
+					classTotals[classId] += featureCounts.valueAt(entry);
+				}
+			}
+			total = total + classTotals[classId];
+		}
+
+		double[] scores = new double[numberOfFeatures];
+
+		//information gain: sum over the classes of x log x for the feature (present) and the correction of the absent part
+		double[] presentSums = null;
+		double[] absentCorrections = null;
+		double allClassesSum = 0;
+		if(criterion == Criterion.INFORMATION_GAIN){
+			presentSums = new double[numberOfFeatures];
+			absentCorrections = new double[numberOfFeatures];
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				allClassesSum = allClassesSum + xLogX(classTotals[classId]);
+			}
+		}
+
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+			for(int entry = 0; entry < featureCounts.capacity(); entry++){
+				if(!featureCounts.isUsed(entry) || featureCounts.valueAt(entry) < minClassCount || !kept[featureCounts.keyAt(entry)]){
+					continue;
+				}
+				int slot = featureCounts.keyAt(entry);
+				double a = featureCounts.valueAt(entry);
+
+				if(criterion == Criterion.CHI_SQUARE){
+					double b = featureTotals[slot] - a;
+					double c = classTotals[classId] - a;
+					double d = total - a - b - c;
+					double denominator = (a + c) * (b + d) * (a + b) * (c + d);
+					if(denominator > 0){
+						double difference = a * d - c * b;
+						scores[slot] = Math.max(scores[slot], total * (difference / denominator) * difference);
+					}
+				}
+				else{
+					presentSums[slot] += xLogX(a);
+					absentCorrections[slot] += xLogX(classTotals[classId] - a) - xLogX(classTotals[classId]);
+				}
+			}
+		}
+
+		if(criterion == Criterion.INFORMATION_GAIN){
+			//IG = H(C) + P(f) Sum P(c|f) log P(c|f) + P(!f) Sum P(c|!f) log P(c|!f), H(C) being the same for all features
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				if(kept[slot]){
+					double present = featureTotals[slot];
+					double absent = total - present;
+					double score = (presentSums[slot] - xLogX(present)) / total;
+					if(absent > 0){
+						score = score + (allClassesSum + absentCorrections[slot] - xLogX(absent)) / total;
+					}
+					scores[slot] = score;
+				}
+			}
+		}
+
+		return scores;
+	}
+
+	private static double xLogX(double x){
+		return x > 0 ? x * Math.log(x) : 0d;
+	}
+
+	private NBRawData copyKept(NBRawData rawData, boolean[] kept){
+
+		NBRawData pruned = new NBRawData(rawData.getStorage());
+
+		for(int sectionId = 0; sectionId < rawData.getNumberOfSections(); sectionId++){
+			pruned.addSectionCount(pruned.addSection(rawData.getSectionName(sectionId)), rawData.getSectionTotalCount(sectionId));
+		}
+
+		int[] slotMapping = new int[rawData.getNumberOfFeatures()];
+		for(int slot = 0; slot < slotMapping.length; slot++){
+			if(kept[slot]){
+				slotMapping[slot] = pruned.addFeature(rawData.getFeatureId(slot));
+				pruned.addFeatureDocumentCount(slotMapping[slot], rawData.getFeatureDocumentCount(slot));
+			}
+		}
+
+		for(int classId = 0; classId < rawData.getNumberOfClasses(); classId++){
+
+			int prunedClassId = pruned.addClass(rawData.getClassName(classId));
+			pruned.addClassCount(prunedClassId, rawData.getClassTotalCount(classId));
+
+			long keptTotal = 0;
+			NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+			for(int entry = 0; entry < featureCounts.capacity(); entry++){
+				if(featureCounts.isUsed(entry) && featureCounts.valueAt(entry) >= minClassCount && kept[featureCounts.keyAt(entry)]){
+					pruned.addClassFeatureCount(prunedClassId, slotMapping[featureCounts.keyAt(entry)], featureCounts.valueAt(entry));
+					keptTotal = keptTotal + featureCounts.valueAt(entry);
+				}
+			}
+
+			//the pruned occurrences still count as words of the class
+			pruned.addFeatureCountTotal(prunedClassId, rawData.getFeatureCountTotal(classId) - keptTotal);
+		}
+
+		return pruned;
+	}
+
+}
@@ -1,8 +1,17 @@
-import java.io.FileNotFoundException;
-import java.util.HashSet;
-import java.util.Set;
-
-import org.aarribas.io.TextFileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.aarribas.io.ByteLineProcessor;
+import org.aarribas.io.FileChunk;
+import org.aarribas.io.MappedFileReader;
 
 
 /**
@@ -11,68 +20,213 @@ import org.aarribas.io.TextFileReader;
  */
 public class NBFileProcessor {
 
-	private NBRawData rawData = new NBRawData();
+	private NBRawData rawData;
+
+	private NBVectorParser parser = new NBVectorParser();
+
+	private DocumentCounter documentCounter = new DocumentCounter();
+
+	private NBCounter linesCounter = NBMetrics.getDefault().counter("train.lines");
+
+	private NBTimer parseTimer = NBMetrics.getDefault().timer("train.parse");
+
+	private NBTimer mergeTimer = NBMetrics.getDefault().timer("train.merge");
+
+	private NBTimer fileTimer = NBMetrics.getDefault().timer("train.file");
+
+	private NBProgress progress;
+
+	//lines counted by this processor
+	private long processedLines;
+
+	public NBFileProcessor() {
+		this(new NBRawData());
+	}
+
+	/**
+	 * Creates a processor adding its counts to already existing ones (e.g. loaded with NBCountsFile).
+	 * @param rawData
+	 */
+	public NBFileProcessor(NBRawData rawData) {
+		this.rawData = rawData;
+	}
+
+	private int numberOfThreads = 1;
+
+	private int chunkBytes = 4 << 20;
+
+	/**
+	 * Sets the number of threads used to count the train file (1 by default).
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
 
-	TextFileReader textFileReader = new TextFileReader();
+	/**
+	 * Sets the number of bytes of whole lines counted together by one thread when training in parallel.
+	 * @param chunkBytes
+	 */
+	public void setChunkBytes(int chunkBytes) {
+		this.chunkBytes = Math.max(1, chunkBytes);
+	}
 
 	/**
 	 * Reads the file and processes each line assuming one line represents the data vector for a document
 	 * (Classes separated by semi colon, then word counts given as id:count and separated by blank space)
+	 * The file is memory mapped and the lines are parsed straight from the mapped bytes.
 	 * @param filename : name of train file
 	 */
 	public void processFile(String filename){
 
-		//try to read the file
-		System.out.println("Reading train file.");
+		//the file is mapped, so only the counts are kept in the heap
+		System.out.println("Reading train file and producing counts per vector.");
+		long start = System.nanoTime();
+		progress = new NBProgress("Read", "lines", 5000);
 		try {
-			textFileReader.readTextFile(filename);
-		} catch (FileNotFoundException e) {
+			MappedFileReader reader = new MappedFileReader(filename);
+			if(numberOfThreads == 1){
+				reader.processFile(new ByteLineProcessor() {
+					public void processLine(ByteBuffer buffer, int lineStart, int lineEnd) {
+						processDocumentVectorData(buffer, lineStart, lineEnd);
+						progress.add(1);
+					}
+				});
+			}
+			else{
+				processChunksInParallel(reader.splitByBytes(chunkBytes));
+			}
+		} catch (IOException e) {
 			System.err.println("Could not load the file with the counts.");
 			System.exit(1);
 		}
+		fileTimer.recordSince(start);
+		progress.finish();
+
+	}
 
-		//process the content
-		System.out.println("Producing counts per vector from the train file.");
-		for(int visitedLine = 0; visitedLine < textFileReader.getTextFileLines().size(); visitedLine++){
-		
-			String[] documentVectorData = textFileReader.getTextFileLines().get(visitedLine).split(" ");
+	/**
+	 * Counts chunks of lines on a fixed pool of threads, each chunk into its own partial NBRawData.
+	 * The chunks are cut by size, so the file is not scanned before the threads start.
+	 * The partials are merged in file order, so the result is the same as counting sequentially.
+	 * At most two chunks per thread are pending at any time.
+	 * The partial counts of a chunk are small and short lived, so they stay on the heap whatever the storage of rawData.
+	 */
+	private void processChunksInParallel(List<FileChunk> chunks){
 
-			processDocumentVectorData(documentVectorData);
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		LinkedList<Future<NBFileProcessor>> pendingChunks = new LinkedList<Future<NBFileProcessor>>();
+		try {
+			for(final FileChunk chunk : chunks){
+				pendingChunks.add(executor.submit(new Callable<NBFileProcessor>() {
+					public NBFileProcessor call() {
+						final NBFileProcessor chunkProcessor = new NBFileProcessor();
+						chunk.processLines(new ByteLineProcessor() {
+							public void processLine(ByteBuffer buffer, int lineStart, int lineEnd) {
+								chunkProcessor.processDocumentVectorData(buffer, lineStart, lineEnd);
+							}
+						});
+						return chunkProcessor;
+					}
+				}));
+
+				//bound the memory used by waiting for the oldest chunk
+				while(pendingChunks.size() > 2 * numberOfThreads){
+					mergeChunk(pendingChunks.removeFirst());
+				}
+			}
+			while(!pendingChunks.isEmpty()){
+				mergeChunk(pendingChunks.removeFirst());
+			}
+		} finally {
+			executor.shutdownNow();
 		}
+	}
 
+	private void mergeChunk(Future<NBFileProcessor> pendingChunk){
+		try {
+			NBFileProcessor chunkProcessor = pendingChunk.get();
+			long start = System.nanoTime();
+			rawData.merge(chunkProcessor.getNBRawData());
+			mergeTimer.recordSince(start);
+			progress.add(chunkProcessor.processedLines);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for counts.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Counting of a chunk of lines failed.", e.getCause());
+		}
 	}
 
 	/**
 	 * This method processes one vector of counts for a document.
-	 * @param documentVectorData
+	 * @param buffer bytes holding the line with the classes followed by the id:count entries
+	 * @param lineStart index of the first byte of the line
+	 * @param lineEnd index after the last byte of the line
 	 */
-	private void processDocumentVectorData(String[] documentVectorData){
+	private void processDocumentVectorData(ByteBuffer buffer, int lineStart, int lineEnd){
+
+		long start = System.nanoTime();
+		documentCounter.startDocument();
+		parser.parse(buffer, lineStart, lineEnd, documentCounter);
+		documentCounter.endDocument();
+		parseTimer.recordSince(start);
+		linesCounter.increment();
+		processedLines++;
+	}
+
+	/**
+	 * Receives the parsed elements of a document and updates the counts in rawData.
+	 * The class and section counts are updated once all the classes of the document are known,
+	 * that is, with the first feature (or at the end of a document without features).
+	 */
+	private class DocumentCounter implements NBVectorHandler {
+
+		//reused buffer with the class ids of the document being processed
+		private int[] classIds = new int[8];
 
-		//first extract the classes and update the counts
-		String[] classes = documentVectorData[0].split(",");
-		rawData.addClassesCounts(classes);
+		private int numberOfClasses;
 
-		//extract the sections and update the counts
-		Set<Character> sectionIds = new HashSet<Character>();
-		for(String singleClass: classes){
+		private boolean classesCounted;
 
-			sectionIds.add(singleClass.charAt(0));
+		void startDocument(){
+			numberOfClasses = 0;
+			classesCounted = false;
+			rawData.startDocument();
 		}
-		
-		rawData.addSectionsCounts(sectionIds);
 
-		//then extract the features and their counts and save those in rawData
-		for(int vectorEntryIndex = 0; vectorEntryIndex<documentVectorData.length; vectorEntryIndex++ ){
+		void endDocument(){
+			if(!classesCounted){
+				countClasses();
+			}
+		}
 
-			if(vectorEntryIndex != 0){
+		public void classLabel(CharSequence text, int start, int end) {
+			if(numberOfClasses == classIds.length){
+				classIds = Arrays.copyOf(classIds, numberOfClasses << 1);
+			}
+			classIds[numberOfClasses++] = rawData.addClass(text, start, end);
+		}
 
-				String[] featureInfo = documentVectorData[vectorEntryIndex].split(":");
+		public void feature(int featureId, double count) {
+			if(!classesCounted){
+				countClasses();
+			}
 
-				rawData.addFeatureCount(Integer.valueOf(featureInfo[0]), //feature index
-						Integer.valueOf(featureInfo[1]), //feature count
-						classes); //classes to add the count to 
+			int featureCount = (int)count;
+			if(featureCount != count){
+				throw new NumberFormatException("Feature counts of the train file must be integers, got " + count + ".");
 			}
 
+			//save the feature and its count in rawData for all the classes of the document
+			rawData.addFeatureCount(featureId, featureCount, classIds, numberOfClasses);
+		}
+
+		private void countClasses(){
+			//update the counts of the classes and of their sections
+			rawData.addClassesCounts(classIds, numberOfClasses);
+			rawData.addSectionsCounts(classIds, numberOfClasses);
+			classesCounted = true;
 		}
 	}
 
@@ -0,0 +1,83 @@
+
+
+/**
+ * @author andresaan
+ * Approximate scorer that first estimates the sections of a document and then only scores
+ * the classes of the most probable ones (a WIPO section holds a small part of all the classes).
+ * The sections are scored with the section level statistics of the model (log P(W|S)), which is
+ * much cheaper than scoring every class; the classes of the topSections best sections then get
+ * exactly the score NBModel.score would give them and all the other classes get Double.NEGATIVE_INFINITY.
+ *
+ * The pruning is approximate and unbounded: the sections are chosen by their estimate alone, so the best class may
+ * belong to a section that was not selected, and every class of the selected sections is scored.
+ * Use NBScorerComparison to measure how often the predictions differ from the exact ones.
+ * What it saves is the share of the table that is not read: the sections cost one row of getNumberOfSections()
+ * entries per feature and the classes the rows of the selected sections only, about
+ * (sections + topSections * classes / sections) / classes of the work of NBModel.score when the sections hold as
+ * many classes each (24 of 64 entries per feature with 2 of 8 sections, 40 of 64 with 4).
+ * The classes of a section are a contiguous range of columns of the table (see NBModel.scoreSectionClasses), but
+ * every feature still costs one call per selected section plus the section row: on a model of 64 classes in 8 sections
+ * the section-first scoring measured slower than NBModel.score, on one of 1024 classes about 4 times faster with
+ * topSections 1.
+ * An exact early exit (scoring the sections in order of an upper bound on their classes and stopping when it can not
+ * beat the k-th best class) was measured and not kept: the sum of the per section maxima of log P(W|C) is too loose
+ * to skip sections often enough to pay for the extra pass over the document.
+ */
+public class NBHierarchicalScorer implements NBScorer {
+
+	private NBModel model;
+
+	private int topSections;
+
+	private ThreadLocal<Buffers> threadBuffers = new ThreadLocal<Buffers>() {
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
+	/**
+	 * @param model model with section level statistics (see NBModel.hasSectionStatistics)
+	 * @param topSections number of sections whose classes are scored
+	 */
+	public NBHierarchicalScorer(NBModel model, int topSections) {
+		if(!model.hasSectionStatistics()){
+			throw new IllegalArgumentException("The model has no section statistics, save it again with this version to score by sections.");
+		}
+		this.model = model;
+		this.topSections = Math.max(1, Math.min(topSections, model.getNumberOfSections()));
+	}
+
+	public int getTopSections() {
+		return topSections;
+	}
+
+	/**
+	 * Work buffers of one scoring thread.
+	 */
+	private class Buffers {
+
+		double[] sectionScores = new double[model.getNumberOfSections()];
+
+		NBTopK bestSections = new NBTopK(topSections);
+
+		int[] sectionIds = new int[topSections];
+	}
+
+	public void score(NBSparseVector vector, double[] scores){
+
+		Buffers buffers = threadBuffers.get();
+
+		model.scoreSections(vector, buffers.sectionScores);
+		buffers.bestSections.select(buffers.sectionScores, model.getNumberOfSections());
+
+		for(int rank = 0; rank < buffers.bestSections.size(); rank++){
+			buffers.sectionIds[rank] = buffers.bestSections.getClassId(rank);
+		}
+
+		for(int classId = 0; classId < model.getNumberOfClasses(); classId++){
+			scores[classId] = Double.NEGATIVE_INFINITY;
+		}
+		model.scoreSectionClasses(vector, scores, buffers.sectionIds, buffers.bestSections.size());
+	}
+
+}
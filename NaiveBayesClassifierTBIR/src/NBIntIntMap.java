@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+
+/**
+ * @author andresaan
+ * Open addressing hash map from int keys to int values.
+ * Used instead of HashMap<Integer,Integer> so that no key or value is ever boxed.
+ * Integer.MIN_VALUE is reserved to mark free slots and can not be used as a key.
+ */
+public class NBIntIntMap implements NBCountMap {
+
+	private static final int FREE_KEY = Integer.MIN_VALUE;
+
+	private int[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	private int mask;
+
+	public NBIntIntMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize number of entries the map should hold before growing
+	 */
+	public NBIntIntMap(int expectedSize) {
+		int capacity = 16;
+		while(capacity * 3 / 4 < expectedSize){
+			capacity = capacity << 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity){
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE_KEY);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Spreads the bits of the key so that consecutive ids do not cluster.
+	 */
+	private static int hash(int key){
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the slot holding the key, or the free slot where it would be inserted.
+	 */
+	private int findSlot(int key){
+		int slot = hash(key) & mask;
+		while(keys[slot] != FREE_KEY && keys[slot] != key){
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @param key
+	 * @param defaultValue value to return if the key is not in the map
+	 * @return the value for key, or defaultValue
+	 */
+	public int get(int key, int defaultValue){
+		int slot = findSlot(key);
+		return keys[slot] == FREE_KEY ? defaultValue : values[slot];
+	}
+
+	public boolean containsKey(int key){
+		return keys[findSlot(key)] != FREE_KEY;
+	}
+
+	public void put(int key, int value){
+		int slot = findSlot(key);
+		if(keys[slot] == FREE_KEY){
+			insert(slot, key, value);
+		}
+		else{
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Adds delta to the value for key (a missing key is considered to be 0).
+	 * @param key
+	 * @param delta
+	 * @return the updated value
+	 */
+	public int add(int key, int delta){
+		int slot = findSlot(key);
+		if(keys[slot] == FREE_KEY){
+			insert(slot, key, delta);
+			return delta;
+		}
+		values[slot] = values[slot] + delta;
+		return values[slot];
+	}
+
+	private void insert(int slot, int key, int value){
+		if(key == FREE_KEY){
+			throw new IllegalArgumentException("Key " + key + " is reserved.");
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+
+		//keep the load factor under 0.75
+		if(size * 4 > keys.length * 3){
+			rehash(keys.length << 1);
+		}
+	}
+
+	private void rehash(int capacity){
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for(int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++){
+			if(oldKeys[oldSlot] != FREE_KEY){
+				int slot = findSlot(oldKeys[oldSlot]);
+				keys[slot] = oldKeys[oldSlot];
+				values[slot] = oldValues[oldSlot];
+			}
+		}
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Number of internal slots, to iterate with isUsed, keyAt and valueAt.
+	 */
+	public int capacity(){
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot){
+		return keys[slot] != FREE_KEY;
+	}
+
+	public int keyAt(int slot){
+		return keys[slot];
+	}
+
+	public int valueAt(int slot){
+		return values[slot];
+	}
+}
@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+
+/**
+ * @author andresaan
+ * Interns class labels (e.g. "A01") to dense int ids, in order of first appearance, and gives every class
+ * the dense id of its section (the first character of the label, e.g. 'A').
+ * Labels can be looked up straight from a range of a CharSequence (e.g. a slice of a line being parsed):
+ * known labels cost a hash and a comparison, and only a new label is turned into a String.
+ * Lookups can run on several threads at once as long as no label or section is being added.
+ */
+public class NBLabelDictionary {
+
+	private String[] names = new String[16];
+
+	//per label: hash of its name (as String.hashCode) and section id
+	private int[] hashes = new int[16];
+
+	private int[] sections = new int[16];
+
+	private int size;
+
+	//open addressing table holding label id + 1, 0 for a free entry; never more than half full
+	private int[] table = new int[32];
+
+	private char[] sectionNames = new char[8];
+
+	//section character -> section id
+	private NBIntIntMap sectionIds = new NBIntIntMap(16);
+
+	/**
+	 * @param label
+	 * @return the id of the label, or -1 if it was never added
+	 */
+	public int getId(String label) {
+		return getId(label, 0, label.length());
+	}
+
+	/**
+	 * Looks the characters text[start, end) up without allocating.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return the id of the label, or -1 if it was never added
+	 */
+	public int getId(CharSequence text, int start, int end) {
+		int hash = hash(text, start, end);
+		int mask = table.length - 1;
+		for(int index = mix(hash) & mask; table[index] != 0; index = (index + 1) & mask){
+			int id = table[index] - 1;
+			if(hashes[id] == hash && matches(names[id], text, start, end)){
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param label
+	 * @return the id of the label, added (with its section) if it was never seen
+	 */
+	public int add(String label) {
+		return add(label, 0, label.length());
+	}
+
+	/**
+	 * Same as add(String) for the characters text[start, end), which are only copied if the label is new.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return the id of the label
+	 */
+	public int add(CharSequence text, int start, int end) {
+
+		int id = getId(text, start, end);
+		if(id >= 0){
+			return id;
+		}
+		if(start == end){
+			throw new IllegalArgumentException("Class labels can not be empty.");
+		}
+
+		id = size;
+		if(id == names.length){
+			names = Arrays.copyOf(names, id << 1);
+			hashes = Arrays.copyOf(hashes, id << 1);
+			sections = Arrays.copyOf(sections, id << 1);
+		}
+		names[id] = text.subSequence(start, end).toString();
+		hashes[id] = names[id].hashCode();
+		sections[id] = addSection(text.charAt(start));
+		size++;
+
+		if(size * 2 > table.length){
+			rehash(table.length << 1);
+		}
+		else{
+			insert(id);
+		}
+		return id;
+	}
+
+	/**
+	 * @param section
+	 * @return the id of the section, added if it was never seen
+	 */
+	public int addSection(char section) {
+
+		int sectionId = sectionIds.get(section, -1);
+		if(sectionId >= 0){
+			return sectionId;
+		}
+
+		sectionId = sectionIds.size();
+		if(sectionId == sectionNames.length){
+			sectionNames = Arrays.copyOf(sectionNames, sectionId << 1);
+		}
+		sectionNames[sectionId] = section;
+		sectionIds.put(section, sectionId);
+		return sectionId;
+	}
+
+	/**
+	 * @param section
+	 * @return the id of the section, or -1 if it was never added
+	 */
+	public int getSectionId(char section) {
+		return sectionIds.get(section, -1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @param id label id
+	 * @return the id of the section of the label
+	 */
+	public int getSection(int id) {
+		return sections[id];
+	}
+
+	public int getNumberOfSections() {
+		return sectionIds.size();
+	}
+
+	public char getSectionName(int sectionId) {
+		return sectionNames[sectionId];
+	}
+
+	private void insert(int id) {
+		int mask = table.length - 1;
+		int index = mix(hashes[id]) & mask;
+		while(table[index] != 0){
+			index = (index + 1) & mask;
+		}
+		table[index] = id + 1;
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		for(int id = 0; id < size; id++){
+			insert(id);
+		}
+	}
+
+	//same value as String.hashCode of the characters
+	private static int hash(CharSequence text, int start, int end) {
+		int hash = 0;
+		for(int index = start; index < end; index++){
+			hash = 31 * hash + text.charAt(index);
+		}
+		return hash;
+	}
+
+	//spreads the high bits, labels often differ only in their last characters
+	private static int mix(int hash) {
+		hash = hash * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean matches(String name, CharSequence text, int start, int end) {
+		if(name.length() != end - start){
+			return false;
+		}
+		for(int index = 0; index < name.length(); index++){
+			if(name.charAt(index) != text.charAt(start + index)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,89 @@
+
+
+/**
+ * @author andresaan
+ * Table of log probabilities with one row per feature and one column per class.
+ * The columns of a model are ordered by section (see NBModel.getClassColumn), so that the classes of a section
+ * can be scored as one contiguous range of every row.
+ * Implementations differ in where (and how) the values are stored.
+ */
+public interface NBLogProbTable {
+
+	/**
+	 * @return precision the values are stored with
+	 */
+	public NBPrecision getPrecision();
+
+	public int getNumberOfRows();
+
+	public int getNumberOfColumns();
+
+	/**
+	 * @param row feature slot
+	 * @param column column of the class
+	 * @return the log probability stored for the feature and class
+	 */
+	public double get(int row, int column);
+
+	/**
+	 * Adds weight times every entry of the row to the accumulators (one per column).
+	 * @param row feature slot
+	 * @param weight count of the feature in the document
+	 * @param accumulators scores per class, updated in place
+	 */
+	public void addRow(int row, double weight, double[] accumulators);
+
+	/**
+	 * Adds weight times the given entries of the row to the accumulators of the same columns.
+	 * @param row feature slot
+	 * @param weight count of the feature in the document
+	 * @param accumulators scores per class, updated in place (only for the given columns)
+	 * @param columns columns to update
+	 * @param numberOfSelectedColumns number of valid entries in columns
+	 */
+	public void addRow(int row, double weight, double[] accumulators, int[] columns, int numberOfSelectedColumns);
+
+	/**
+	 * Adds weight times the entries [fromColumn, toColumn) of the row to the accumulators of the same columns.
+	 * @param row feature slot
+	 * @param weight count of the feature in the document
+	 * @param accumulators scores per class, updated in place (only for the columns of the range)
+	 * @param fromColumn first column to update
+	 * @param toColumn end of the columns to update (excluded)
+	 */
+	public void addRow(int row, double weight, double[] accumulators, int fromColumn, int toColumn);
+
+	/**
+	 * Adds weight times every entry of each given row to the accumulators, as calling addRow for each row would,
+	 * but lets the implementation accumulate the rows in its own representation before adding them.
+	 * Thread safe, like the other methods.
+	 * @param rows feature slots
+	 * @param weights count of each feature in the document
+	 * @param numberOfGivenRows number of valid entries in rows and weights
+	 * @param accumulators scores per class, updated in place
+	 */
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators);
+
+	/**
+	 * Same as addRows for the given columns only: each of them gets exactly the value addRows would give it.
+	 * @param rows feature slots
+	 * @param weights count of each feature in the document
+	 * @param numberOfGivenRows number of valid entries in rows and weights
+	 * @param accumulators scores per class, updated in place (only for the given columns)
+	 * @param columns columns to update
+	 * @param numberOfSelectedColumns number of valid entries in columns
+	 */
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int[] columns, int numberOfSelectedColumns);
+
+	/**
+	 * Same as addRows for the columns [fromColumn, toColumn) only: each of them gets exactly the value addRows would give it.
+	 * @param rows feature slots
+	 * @param weights count of each feature in the document
+	 * @param numberOfGivenRows number of valid entries in rows and weights
+	 * @param accumulators scores per class, updated in place (only for the columns of the range)
+	 * @param fromColumn first column to update
+	 * @param toColumn end of the columns to update (excluded)
+	 */
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int fromColumn, int toColumn);
+
+}
@@ -1,28 +1,543 @@
+import java.io.IOException;
+
+import org.aarribas.io.TextFileSink;
 
 
 public class NBMain {
 
+	private static final String USAGE = "Usage:\n" +
+			"  NBMain <train file> <test file> <results file>\n" +
+			"      trains on the train file and saves the predictions for the test file to the results file.\n" +
+			"  NBMain train <train file> <model file> [-counts <counts file>]\n" +
+			"      trains on the train file and saves the finalized model to the model file (and the raw counts).\n" +
+			"  NBMain predict <model file> <test file> <results file>\n" +
+			"      loads the model file and saves the predictions for the test file to the results file.\n" +
+			"  NBMain update <counts file> <delta file> <model file>\n" +
+			"      adds the documents of the delta file to the counts and refreshes the model, saving both.\n" +
+			"  NBMain serve <model file> [-port N] [-batch N] [-wait MS] [-queue N] [-timeout MS] [-max-body MB]\n" +
+			"      loads the model file and answers POST http://127.0.0.1:<port>/predict (one vector per line).\n" +
+			"  NBMain compare <model file> <test file> [-sections N | -with <model file> | -precision P | -kernel K | -scoring sparse]\n" +
+			"      compares the predictions and scoring time of the section-first scoring (or of another model\n" +
+			"      with the same classes, e.g. pruned, of the model in another precision or kernel, or of the sparse scoring)\n" +
+			"      with the exact scoring of the model.\n" +
+			"  NBMain evaluate <labelled file> [-folds N]\n" +
+			"      k-fold cross-validation: reports the top-1 and top-k accuracy, and the time, of every fold.\n" +
+			"Options:\n" +
+			"  -threads N : number of threads used to train and predict (default 1), or folds evaluated together\n" +
+			"      (default the number of processors)\n" +
+			"  -folds N : number of cross-validation folds (default 5)\n" +
+			"  -k N : number of classes predicted per document (default 3)\n" +
+			"  -scores true : save the log probability next to each predicted class\n" +
+			"  -min-count N : drop the features seen less than N times with a class, for that class (train, update)\n" +
+			"  -min-df N : drop the features seen in less than N documents (train, update)\n" +
+			"  -top N : keep only the N best features by -criterion chi2|ig (default chi2) (train, update)\n" +
+			"  -precision double|float|int16 : precision of the stored log probabilities (default double)\n" +
+			"  -storage heap|offheap|file : keeps the training counts and the model table in the heap (default), in direct\n" +
+			"      buffers, or in temporary files mapped from -storage-dir <directory> (default the temporary directory);\n" +
+			"      direct buffers are limited by -XX:MaxDirectMemorySize (default the maximum heap size)\n" +
+			"  -kernel scalar|vector : adds the log probabilities with scalar loops or the JDK Vector API (default scalar,\n" +
+			"      vector needs the sources under vector/ and --add-modules jdk.incubator.vector)\n" +
+			"  -scoring dense|sparse : adds every row of the table to all the classes, or starts every class from its unseen\n" +
+			"      baseline and only adds the observed (feature, class) pairs of the document (default dense)\n" +
+			"  -flush N : write the results file every N predicted lines (default only when the buffer is full)\n" +
+			"  -fsync none|close|flush : when the results are forced to the disk (default none)\n" +
+			"  -cache N : reuses the predictions of the last N different document vectors for repeated ones (default 0, none)\n" +
+			"  -sections N : only score the classes of the N most probable sections (approximate: the best class may be\n" +
+			"      in another section; reads about N / number of sections of the table)\n" +
+			"  -port N : port of the prediction server (default 8080)\n" +
+			"  -batch N : maximum number of documents handed together to a server worker (default 64)\n" +
+			"  -wait MS : maximum time a document waits for its batch to fill (default 2)\n" +
+			"  -queue N : maximum number of documents waiting for the server, beyond requests are answered 503 (default 4096)\n" +
+			"  -timeout MS : maximum time a request waits for its predictions before being answered 503 (default 10000)\n" +
+			"  -max-body MB : maximum size of a request to the server, beyond it is answered 413 (default 64)\n" +
+			"  -metrics <file> : rewrites a name=value report of the counters and timers to the file, and exposes them in JMX\n" +
+			"  -metrics-interval S : seconds between two reports (default 10)\n";
+
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		
-		if(args.length < 2){
-			System.out.println("Not enough arguments provided\n" +
-					"First argument shall be the train file\n" +
-					"Second argument shall be the test file\n" + 
-					"Third argument shall be the file to save the results to.\n");
+
+		NBOptions options = null;
+		try {
+			options = new NBOptions(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage() + "\n" + USAGE);
+			System.exit(1);
+		}
+
+		if(options.hasOption("metrics")){
+			NBMetrics.getDefault().registerMBean();
+			NBMetrics.getDefault().startReporting(options.getOption("metrics", null), options.getIntOption("metrics-interval", 10) * 1000L);
+		}
+
+		if(options.getNumberOfArguments() == 3 && options.getArgument(0).equals("train")){
+			train(options);
+		}
+		else if(options.getNumberOfArguments() == 4 && options.getArgument(0).equals("predict")){
+			predict(options);
+		}
+		else if(options.getNumberOfArguments() == 4 && options.getArgument(0).equals("update")){
+			update(options);
+		}
+		else if(options.getNumberOfArguments() == 2 && options.getArgument(0).equals("serve")){
+			serve(options);
+			//the server keeps running, its shutdown hook writes the last report
+			return;
+		}
+		else if(options.getNumberOfArguments() == 3 && options.getArgument(0).equals("compare")){
+			compare(options);
+		}
+		else if(options.getNumberOfArguments() == 2 && options.getArgument(0).equals("evaluate")){
+			evaluate(options);
+		}
+		else if(options.getNumberOfArguments() == 3){
+			trainAndPredict(options);
+		}
+		else{
+			System.out.println("Not enough arguments provided\n" + USAGE);
 			System.exit(0);
 		}
-		
-		//process the file - produces raw counts
-		NBFileProcessor fileProcessor = new NBFileProcessor();
-		fileProcessor.processFile(args[0]);
-		
+
+		NBMetrics.getDefault().stopReporting();
+	}
+
+	private static void trainAndPredict(NBOptions options){
+
 		//predict the classes given the counts and save to file
-		NBPredictor predictor = new NBPredictor(fileProcessor.getNBRawData());
-		predictor.predictAndSave(args[1], args[2]);
-	
+		NBRawData rawData = selectFeatures(createFeatureSelection(options), processFile(options, options.getArgument(0)));
+		System.out.println("Computing log probabilities per class, section and feature.");
+		NBPredictor predictor = new NBPredictor(withKernel(options, withPrecision(options, new NBModel(rawData))));
+		configurePredictor(predictor, options);
+		predictor.predictAndSave(options.getArgument(1), options.getArgument(2));
+	}
+
+	private static void train(NBOptions options){
+
+		NBRawData rawData = processFile(options, options.getArgument(1));
+		NBFeatureSelection selection = createFeatureSelection(options);
+		NBModel model = new NBModel(selectFeatures(selection, rawData));
+
+		//the counts first: the model can always be finalized again from them
+		if(options.hasOption("counts")){
+			saveCounts(rawData, selection, options.getOption("counts", null));
+		}
+		saveModel(withPrecision(options, model), options.getArgument(2));
+	}
+
+	private static void update(NBOptions options){
+
+		NBRawData rawData = null;
+		NBFeatureSelection trainedSelection = null;
+		try {
+			trainedSelection = NBCountsFile.loadFeatureSelection(options.getArgument(1));
+			rawData = NBCountsFile.load(options.getArgument(1), getStorage(options));
+		} catch (IOException e) {
+			System.err.println("Could not load the counts from " + options.getArgument(1));
+			e.printStackTrace();
+			System.exit(1);
+		}
+		//add the new documents to the counts, marking the classes they belong to as changed
+		NBFileProcessor fileProcessor = new NBFileProcessor(rawData);
+		fileProcessor.setNumberOfThreads(options.getIntOption("threads", 1));
+		fileProcessor.processFile(options.getArgument(2));
+
+		//prune as given, or else as the model was trained
+		NBFeatureSelection selection = createFeatureSelection(options);
+		if(!hasFeatureSelectionOptions(options) && trainedSelection != null){
+			selection = trainedSelection;
+			if(selection.isEnabled()){
+				System.out.println("Pruning as the model was trained: " + selection.getDescription() + ".");
+			}
+		}
+
+		NBModel model = null;
+		if(selection.isEnabled() || hasFeatureSelectionOptions(options)){
+			//the pruned features depend on all the counts, so the model is computed again
+			model = new NBModel(selectFeatures(selection, rawData));
+		}
+		else if(trainedSelection == null){
+			//older counts files do not tell whether the model was pruned, its entries can not be reused safely
+			System.out.println("The counts file does not record how the model was pruned, computing the whole model again"
+					+ " without pruning (give the pruning options of the training to prune it).");
+			model = new NBModel(rawData);
+		}
+		else{
+			System.out.println("Refreshing the model for the changed classes.");
+			try {
+				model = new NBModel(loadModel(options.getArgument(3)), rawData);
+			} catch (IllegalArgumentException e) {
+				System.err.println("The model file " + options.getArgument(3) + " was not finalized from the counts in "
+						+ options.getArgument(1) + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		rawData.resetChangedClasses();
+
+		//the counts first: if the model is not saved, an update with an empty delta file and
+		//any pruning option (e.g. -min-count 1) finalizes it again from all the counts
+		saveCounts(rawData, selection, options.getArgument(1));
+		saveModel(withPrecision(options, model), options.getArgument(3));
+	}
+
+	private static boolean hasFeatureSelectionOptions(NBOptions options){
+		return options.hasOption("min-count") || options.hasOption("min-df") || options.hasOption("top") || options.hasOption("criterion");
+	}
+
+	private static NBFeatureSelection createFeatureSelection(NBOptions options){
+
+		NBFeatureSelection selection = new NBFeatureSelection();
+		selection.setMinClassCount(options.getIntOption("min-count", 1));
+		selection.setMinDocumentFrequency(options.getIntOption("min-df", 1));
+		selection.setTopFeatures(options.getIntOption("top", 0));
+
+		String criterion = options.getOption("criterion", "chi2");
+		if(criterion.equals("chi2")){
+			selection.setCriterion(NBFeatureSelection.Criterion.CHI_SQUARE);
+		}
+		else if(criterion.equals("ig")){
+			selection.setCriterion(NBFeatureSelection.Criterion.INFORMATION_GAIN);
+		}
+		else{
+			System.err.println("Unknown -criterion " + criterion + ", expected chi2 or ig.");
+			System.exit(1);
+		}
+		return selection;
+	}
+
+	/**
+	 * Prunes the features of the counts if the selection is enabled, reporting the reduction.
+	 * The counts themselves are left unchanged (they are the ones saved for later updates).
+	 */
+	private static NBRawData selectFeatures(NBFeatureSelection selection, NBRawData rawData){
+
+		if(!selection.isEnabled()){
+			return rawData;
+		}
+
+		System.out.println("Pruning the features.");
+		NBRawData pruned = selection.prune(rawData);
+		System.out.println(selection.getReport());
+		return pruned;
+	}
+
+	private static void saveModel(NBModel model, String modelFilename){
+
+		System.out.println("Saving model to " + modelFilename + ".");
+		long start = System.nanoTime();
+		try {
+			NBModelFile.save(model, modelFilename);
+			NBMetrics.getDefault().timer("model.save").recordSince(start);
+		} catch (IOException e) {
+			System.err.println("Could not save the model to " + modelFilename);
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static void saveCounts(NBRawData rawData, NBFeatureSelection selection, String countsFilename){
+
+		System.out.println("Saving counts to " + countsFilename + ".");
+		try {
+			NBCountsFile.save(rawData, selection, countsFilename);
+		} catch (IOException e) {
+			System.err.println("Could not save the counts to " + countsFilename);
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static void predict(NBOptions options){
+
+		NBPredictor predictor = new NBPredictor(withKernel(options, withPrecision(options, loadModel(options.getArgument(1)))));
+		configurePredictor(predictor, options);
+		predictor.predictAndSave(options.getArgument(2), options.getArgument(3));
+	}
+
+	private static void serve(NBOptions options){
+
+		NBPredictor predictor = new NBPredictor(withKernel(options, withPrecision(options, loadModel(options.getArgument(1)))));
+		configurePredictor(predictor, options);
+
+		//a long running server is always observable through JMX
+		NBMetrics.getDefault().registerMBean();
+
+		try {
+			final NBPredictionServer server = new NBPredictionServer(predictor,
+					options.getIntOption("port", 8080),
+					options.getIntOption("threads", Runtime.getRuntime().availableProcessors()),
+					options.getIntOption("batch", 64),
+					options.getIntOption("wait", 2),
+					options.getIntOption("queue", 4096),
+					options.getIntOption("timeout", 10000),
+					options.getIntOption("max-body", 64) * (1L << 20));
+			server.start();
+			System.out.println("Serving predictions on http://127.0.0.1:" + server.getPort() + "/predict");
+
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					server.stop();
+					NBMetrics.getDefault().stopReporting();
+				}
+			});
+		} catch (IOException e) {
+			System.err.println("Could not start the prediction server.");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static void compare(NBOptions options){
+
+		NBModel model = loadModel(options.getArgument(1));
+
+		//the candidate is either another model with the same classes (e.g. pruned), the model in another precision
+		//or kernel, the sparse scoring or the section-first scoring
+		NBScorer candidate;
+		if(options.hasOption("with")){
+			NBModel other = loadModel(options.getOption("with", null));
+			if(!haveSameClasses(model, other)){
+				System.err.println("The model files " + options.getArgument(1) + " and " + options.getOption("with", null) + " do not have the same classes.");
+				System.exit(1);
+			}
+			candidate = other;
+		}
+		else if(options.hasOption("precision") || options.hasOption("kernel")){
+			candidate = withKernel(options, withPrecision(options, model));
+		}
+		else if(options.hasOption("scoring")){
+			NBSparseScorer sparseScorer = sparseScorer(options, model);
+			candidate = sparseScorer != null ? sparseScorer : model;
+		}
+		else{
+			if(!model.hasSectionStatistics()){
+				System.err.println("The model file " + options.getArgument(1) + " has no section statistics, train it again to compare.");
+				System.exit(1);
+			}
+			candidate = new NBHierarchicalScorer(model, options.getIntOption("sections", 2));
+		}
+
+		int k = options.getIntOption("k", 3);
+		NBScorerComparison comparison = new NBScorerComparison(model.getNumberOfClasses(), k);
+		try {
+			comparison.compare(model, candidate, model, options.getArgument(2));
+		} catch (IOException e) {
+			System.err.println("Could not read the test file " + options.getArgument(2));
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.out.print(comparison.getReport());
+	}
+
+	private static void evaluate(NBOptions options){
+
+		NBCrossValidation crossValidation = null;
+		try {
+			crossValidation = new NBCrossValidation(options.getIntOption("folds", 5));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		crossValidation.setNumberOfThreads(options.getIntOption("threads", Runtime.getRuntime().availableProcessors()));
+		crossValidation.setK(options.getIntOption("k", 3));
+		crossValidation.setFeatureSelection(createFeatureSelection(options));
+		crossValidation.setStorage(getStorage(options));
+		if(options.hasOption("precision")){
+			try {
+				crossValidation.setPrecision(NBPrecision.parse(options.getOption("precision", null)));
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+		}
+
+		//the file is parsed once, every fold counts its documents from memory
+		System.out.println("Reading the labelled file.");
+		long start = System.nanoTime();
+		NBDocumentSet documents = null;
+		try {
+			documents = NBDocumentSet.load(options.getArgument(1));
+		} catch (IOException e) {
+			System.err.println("Could not read the labelled file " + options.getArgument(1));
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.out.println(String.format("Read %d documents with %d classes in %.2f s.", documents.getNumberOfDocuments(),
+				documents.getNumberOfLabels(), (System.nanoTime() - start) / 1e9));
+
+		crossValidation.evaluate(documents);
+		System.out.print(crossValidation.getReport());
+	}
+
+	/**
+	 * Storage of the counts and of the finalized model table given with -storage (and -storage-dir), the heap by default.
+	 */
+	private static NBStorage getStorage(NBOptions options){
+
+		NBStorage storage = null;
+		try {
+			storage = NBStorage.parse(options.getOption("storage", "heap"), options.getOption("storage-dir", null));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		if(storage.isOffHeap()){
+			System.out.println("Keeping the counts and the model table in " + storage + ".");
+		}
+		return storage;
+	}
+
+	/**
+	 * Converts the model to the precision given with -precision, if any.
+	 */
+	private static NBModel withPrecision(NBOptions options, NBModel model){
+
+		if(!options.hasOption("precision")){
+			return model;
+		}
+
+		NBPrecision precision = null;
+		try {
+			precision = NBPrecision.parse(options.getOption("precision", null));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		NBModel converted = model.withPrecision(precision);
+		System.out.println("Model table in " + precision.name().toLowerCase() + " precision: "
+				+ converted.getMemoryFootprint() / 1024 + " KB (was " + model.getMemoryFootprint() / 1024 + " KB).");
+		return converted;
+	}
+
+	/**
+	 * Builds the sparse scorer of the model when -scoring sparse is given, returns null for the default dense scoring.
+	 */
+	private static NBSparseScorer sparseScorer(NBOptions options, NBModel model){
+
+		String scoring = options.getOption("scoring", "dense");
+		if(scoring.equals("dense")){
+			return null;
+		}
+		if(!scoring.equals("sparse")){
+			System.err.println("Unknown -scoring " + scoring + ", expected dense or sparse.");
+			System.exit(1);
+		}
+
+		NBSparseScorer scorer = null;
+		try {
+			scorer = new NBSparseScorer(model);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(String.format("Sparse scoring: %d postings (%.2f%% of the table), %d KB.",
+				scorer.getNumberOfPostings(), 100 * scorer.getDensity(), scorer.getMemoryFootprint() / 1024));
+		return scorer;
+	}
+
+	/**
+	 * Switches the model to the kernel given with -kernel, if any. Falls back to the scalar kernel when
+	 * the vector kernel is not available or does not support the precision of the model.
+	 */
+	private static NBModel withKernel(NBOptions options, NBModel model){
+
+		String kernel = options.getOption("kernel", "scalar");
+		if(kernel.equals("scalar")){
+			return model;
+		}
+		if(!kernel.equals("vector")){
+			System.err.println("Unknown -kernel " + kernel + ", expected scalar or vector.");
+			System.exit(1);
+		}
+
+		try {
+			NBModel vectorized = model.withVectorKernel();
+			System.out.println("Scoring with the vector kernel (" + NBVectorKernel.getDescription() + ").");
+			return vectorized;
+		} catch (UnsupportedOperationException e) {
+			System.err.println(e.getMessage() + " Scoring with the scalar kernel.");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage() + " Scoring with the scalar kernel.");
+		}
+		return model;
+	}
+
+	private static boolean haveSameClasses(NBModel model, NBModel other){
+		if(model.getNumberOfClasses() != other.getNumberOfClasses()){
+			return false;
+		}
+		for(int classId = 0; classId < model.getNumberOfClasses(); classId++){
+			if(!model.getClassName(classId).equals(other.getClassName(classId))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static NBModel loadModel(String modelFilename){
+
+		NBModel model = null;
+		long start = System.nanoTime();
+		try {
+			model = NBModelFile.load(modelFilename);
+			NBMetrics.getDefault().timer("model.load").recordSince(start);
+		} catch (IOException e) {
+			System.err.println("Could not load the model from " + modelFilename);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return model;
+	}
+
+	private static void configurePredictor(NBPredictor predictor, NBOptions options){
+		predictor.setNumberOfThreads(options.getIntOption("threads", 1));
+		predictor.setNumberOfPredictions(options.getIntOption("k", 3));
+		predictor.setSaveScores(Boolean.parseBoolean(options.getOption("scores", "false")));
+		predictor.setFlushEveryLines(options.getIntOption("flush", 0));
+		predictor.setCacheSize(options.getIntOption("cache", 0));
+
+		String fsync = options.getOption("fsync", "none");
+		if(fsync.equals("close")){
+			predictor.setSyncPolicy(TextFileSink.SyncPolicy.ON_CLOSE);
+		}
+		else if(fsync.equals("flush")){
+			predictor.setSyncPolicy(TextFileSink.SyncPolicy.ON_FLUSH);
+		}
+		else if(!fsync.equals("none")){
+			System.err.println("Unknown -fsync policy " + fsync + ", expected none, close or flush.");
+			System.exit(1);
+		}
+
+		NBSparseScorer sparseScorer = sparseScorer(options, predictor.getModel());
+		if(sparseScorer != null){
+			if(options.hasOption("sections")){
+				System.err.println("-sections and -scoring sparse can not be used together.");
+				System.exit(1);
+			}
+			predictor.setScorer(sparseScorer);
+		}
+
+		if(options.hasOption("sections")){
+			NBModel model = predictor.getModel();
+			if(model.hasSectionStatistics()){
+				predictor.setScorer(new NBHierarchicalScorer(model, options.getIntOption("sections", 2)));
+			}
+			else{
+				System.err.println("The model has no section statistics, scoring every class.");
+			}
+		}
+	}
+
+	/**
+	 * Processes the train file - produces raw counts
+	 */
+	private static NBRawData processFile(NBOptions options, String trainFilename){
+
+		NBFileProcessor fileProcessor = new NBFileProcessor(new NBRawData(getStorage(options)));
+		fileProcessor.setNumberOfThreads(options.getIntOption("threads", 1));
+		fileProcessor.processFile(trainFilename);
+
+		return fileProcessor.getNBRawData();
 	}
 
 }
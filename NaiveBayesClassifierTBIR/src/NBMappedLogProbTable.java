@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * @author andresaan
+ * NBLogProbTable kept outside of the heap in byte buffers: read directly from a model file mapped in memory,
+ * or allocated by an off heap NBStorage and filled when the model is finalized.
+ * The pages of a model file are shared by all the processes mapping it, and loaded by the OS on demand.
+ * A single buffer is limited to 2GB, so the table is split in segments holding whole rows.
+ */
+public class NBMappedLogProbTable implements NBWritableLogProbTable {
+
+	private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE - 7;
+
+	private DoubleBuffer[] segments;
+
+	//the same segments as bytes (little endian)
+	private ByteBuffer[] byteSegments;
+
+	private int rowsPerSegment;
+
+	private int numberOfRows;
+
+	private int numberOfColumns;
+
+	/**
+	 * Maps the table starting at position in the channel.
+	 * @param channel open channel of the model file
+	 * @param position offset of the first value (doubles stored little endian, row after row)
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 * @throws IOException
+	 */
+	public NBMappedLogProbTable(FileChannel channel, long position, int numberOfRows, int numberOfColumns) throws IOException {
+
+		long rowBytes = createSegments(numberOfRows, numberOfColumns);
+		for(int segment = 0; segment < segments.length; segment++){
+			int firstRow = segment * rowsPerSegment;
+			int rows = Math.min(rowsPerSegment, numberOfRows - firstRow);
+			setSegment(segment, channel.map(FileChannel.MapMode.READ_ONLY, position + firstRow * rowBytes, rows * rowBytes));
+		}
+	}
+
+	/**
+	 * Allocates a table of zeros in the buffers of the storage, to be filled with set and setRow.
+	 * @param storage an off heap storage (see NBStorage.allocate)
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 */
+	public NBMappedLogProbTable(NBStorage storage, int numberOfRows, int numberOfColumns) {
+
+		long rowBytes = createSegments(numberOfRows, numberOfColumns);
+		for(int segment = 0; segment < segments.length; segment++){
+			int rows = Math.min(rowsPerSegment, numberOfRows - segment * rowsPerSegment);
+			setSegment(segment, storage.allocate((int)(rows * rowBytes)));
+		}
+	}
+
+	/**
+	 * @return the size in bytes of a row
+	 */
+	private long createSegments(int numberOfRows, int numberOfColumns){
+
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+
+		long rowBytes = Math.max(1, (long)numberOfColumns * 8);
+		rowsPerSegment = (int)Math.max(1, MAX_SEGMENT_BYTES / rowBytes);
+
+		int numberOfSegments = Math.max(1, (numberOfRows + rowsPerSegment - 1) / rowsPerSegment);
+		segments = new DoubleBuffer[numberOfSegments];
+		byteSegments = new ByteBuffer[numberOfSegments];
+		return rowBytes;
+	}
+
+	private void setSegment(int segment, ByteBuffer buffer){
+		byteSegments[segment] = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		segments[segment] = byteSegments[segment].asDoubleBuffer();
+	}
+
+	public NBPrecision getPrecision() {
+		return NBPrecision.DOUBLE;
+	}
+
+	//storage for other kernels (see NBVectorKernel)
+	ByteBuffer getByteSegment(int segment) {
+		return byteSegments[segment];
+	}
+
+	int getRowsPerSegment() {
+		return rowsPerSegment;
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	public double get(int row, int column) {
+		return segments[row / rowsPerSegment].get((row % rowsPerSegment) * numberOfColumns + column);
+	}
+
+	public void set(int row, int column, double value) {
+		segments[row / rowsPerSegment].put((row % rowsPerSegment) * numberOfColumns + column, value);
+	}
+
+	public void setRow(int row, double[] values) {
+		DoubleBuffer segment = segments[row / rowsPerSegment];
+		int offset = (row % rowsPerSegment) * numberOfColumns;
+		for(int column = 0; column < numberOfColumns; column++){
+			segment.put(offset + column, values[column]);
+		}
+	}
+
+	public void addRow(int row, double weight, double[] accumulators) {
+		addRow(row, weight, accumulators, 0, numberOfColumns);
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int fromColumn, int toColumn) {
+		DoubleBuffer segment = segments[row / rowsPerSegment];
+		int offset = (row % rowsPerSegment) * numberOfColumns;
+		for(int column = fromColumn; column < toColumn; column++){
+			accumulators[column] = accumulators[column] + segment.get(offset + column)*weight;
+		}
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+		DoubleBuffer segment = segments[row / rowsPerSegment];
+		int offset = (row % rowsPerSegment) * numberOfColumns;
+		for(int index = 0; index < numberOfSelectedColumns; index++){
+			int column = columns[index];
+			accumulators[column] = accumulators[column] + segment.get(offset + column)*weight;
+		}
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators) {
+		for(int index = 0; index < numberOfGivenRows; index++){
+			addRow(rows[index], weights[index], accumulators);
+		}
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int fromColumn, int toColumn) {
+		for(int index = 0; index < numberOfGivenRows; index++){
+			addRow(rows[index], weights[index], accumulators, fromColumn, toColumn);
+		}
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+		for(int index = 0; index < numberOfGivenRows; index++){
+			addRow(rows[index], weights[index], accumulators, columns, numberOfSelectedColumns);
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.aarribas.io.TextFileSaver;
+
+
+/**
+ * @author andresaan
+ * Registry of the counters, timers and gauges of a run (training, prediction, serving).
+ * The stages take their metrics from the shared registry (NBMetrics.getDefault()) once and update them
+ * without locking: counters are LongAdders and timers record into a cell owned by the calling thread, so
+ * instrumentation costs a few uncontended writes per document, and the cells are only summed when read.
+ *
+ * The metrics are exposed through JMX and, optionally, through a machine readable report
+ * (name=value lines) rewritten periodically to a file:
+ *   counters: name.count and name.rate (per second since the registry was created)
+ *   timers: name.count, name.total_ms, name.mean_ns, name.p50_ns, name.p90_ns, name.p99_ns, name.max_ns
+ *   gauges: name
+ */
+public class NBMetrics implements NBMetricsMXBean {
+
+	private static final NBMetrics DEFAULT = new NBMetrics();
+
+	private long startMillis = System.currentTimeMillis();
+
+	private Map<String, NBCounter> counters = new LinkedHashMap<String, NBCounter>();
+
+	private Map<String, NBTimer> timers = new LinkedHashMap<String, NBTimer>();
+
+	private Map<String, AtomicLong> gauges = new LinkedHashMap<String, AtomicLong>();
+
+	private ScheduledExecutorService reporter;
+
+	private String reportFilename;
+
+	/**
+	 * @return the registry shared by all the stages of the process
+	 */
+	public static NBMetrics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param name
+	 * @return the counter with that name, created on first use
+	 */
+	public synchronized NBCounter counter(String name) {
+		NBCounter counter = counters.get(name);
+		if(counter == null){
+			counter = new NBCounter();
+			counters.put(name, counter);
+		}
+		return counter;
+	}
+
+	/**
+	 * @param name
+	 * @return the timer with that name, created on first use
+	 */
+	public synchronized NBTimer timer(String name) {
+		NBTimer timer = timers.get(name);
+		if(timer == null){
+			timer = new NBTimer();
+			timers.put(name, timer);
+		}
+		return timer;
+	}
+
+	/**
+	 * Sets the current value of a gauge (e.g. the memory footprint of the model).
+	 * @param name
+	 * @param value
+	 */
+	public void setGauge(String name, long value) {
+		AtomicLong gauge;
+		synchronized(this){
+			gauge = gauges.get(name);
+			if(gauge == null){
+				gauge = new AtomicLong();
+				gauges.put(name, gauge);
+			}
+		}
+		gauge.set(value);
+	}
+
+	public synchronized Map<String, Double> getValues() {
+
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+
+		double uptimeSeconds = Math.max(1, System.currentTimeMillis() - startMillis) / 1000d;
+		values.put("uptime_ms", (double)(System.currentTimeMillis() - startMillis));
+
+		for(Map.Entry<String, NBCounter> counter : counters.entrySet()){
+			long count = counter.getValue().getCount();
+			values.put(counter.getKey() + ".count", (double)count);
+			values.put(counter.getKey() + ".rate", count / uptimeSeconds);
+		}
+
+		for(Map.Entry<String, NBTimer> entry : timers.entrySet()){
+			NBTimer timer = entry.getValue();
+			String name = entry.getKey();
+			values.put(name + ".count", (double)timer.getCount());
+			values.put(name + ".total_ms", timer.getTotalNanos() / 1e6);
+			values.put(name + ".mean_ns", timer.getMeanNanos());
+			values.put(name + ".p50_ns", (double)timer.getPercentileNanos(50));
+			values.put(name + ".p90_ns", (double)timer.getPercentileNanos(90));
+			values.put(name + ".p99_ns", (double)timer.getPercentileNanos(99));
+			values.put(name + ".max_ns", (double)timer.getMaxNanos());
+		}
+
+		for(Map.Entry<String, AtomicLong> gauge : gauges.entrySet()){
+			values.put(gauge.getKey(), (double)gauge.getValue().get());
+		}
+
+		return values;
+	}
+
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		for(String line : getReportLines()){
+			report.append(line).append('\n');
+		}
+		return report.toString();
+	}
+
+	private List<String> getReportLines() {
+		List<String> lines = new ArrayList<String>();
+		lines.add("timestamp_ms=" + System.currentTimeMillis());
+		for(Map.Entry<String, Double> value : getValues().entrySet()){
+			double number = value.getValue();
+			lines.add(value.getKey() + "=" + (number == Math.rint(number) ? String.valueOf((long)number) : String.format("%.3f", number)));
+		}
+		return lines;
+	}
+
+	/**
+	 * Registers the registry in the platform MBean server as NBMain:type=Metrics.
+	 * Failures are reported but do not stop the run.
+	 */
+	public void registerMBean() {
+		try {
+			ObjectName name = new ObjectName("NBMain:type=Metrics");
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(name)){
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			System.err.println("Could not register the metrics in JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rewrites the report to fileName every intervalMillis until stopReporting is called.
+	 * The file is replaced atomically, so readers never see a partial report.
+	 * @param fileName
+	 * @param intervalMillis
+	 */
+	public synchronized void startReporting(String fileName, long intervalMillis) {
+
+		stopReporting();
+
+		reportFilename = fileName;
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "nb-metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				saveReport();
+			}
+		}, intervalMillis, Math.max(1, intervalMillis), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic report, writing it one last time.
+	 */
+	public synchronized void stopReporting() {
+		if(reporter != null){
+			reporter.shutdownNow();
+			reporter = null;
+			saveReport();
+		}
+	}
+
+	private void saveReport() {
+
+		File target = new File(reportFilename).getAbsoluteFile();
+		try {
+			File temporary = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+			try {
+				new TextFileSaver().saveTextFile(temporary.getPath(), getReportLines(), TextFileSaver.SaveMode.NEW);
+				Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not save the metrics to " + reportFilename);
+		}
+	}
+
+}
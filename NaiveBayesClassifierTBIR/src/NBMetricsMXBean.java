@@ -0,0 +1,20 @@
+import java.util.Map;
+
+
+/**
+ * @author andresaan
+ * JMX view of NBMetrics (registered as NBMain:type=Metrics), readable with jconsole or any JMX client.
+ */
+public interface NBMetricsMXBean {
+
+	/**
+	 * @return every metric by name, as in the machine readable report
+	 */
+	public Map<String, Double> getValues();
+
+	/**
+	 * @return the machine readable report, one name=value per line
+	 */
+	public String getReport();
+
+}
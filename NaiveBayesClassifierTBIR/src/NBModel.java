@@ -0,0 +1,892 @@
+
+
+/**
+ * @author andresaan
+ * Frozen model used for predictions, computed once from the raw counts.
+ * It holds the log probability of every (feature, class) pair so that scoring needs no Math.log and no map lookups,
+ * the log probability used for features not observed with a class,
+ * and the log probabilities per class (given its section) and per section.
+ * It also holds the same statistics at section level (the counts of all the classes of a section together)
+ * so that the sections of a document can be estimated before its classes (see NBHierarchicalScorer).
+ */
+public class NBModel implements NBScorer {
+
+	private String[] classNames;
+
+	private int[] classSections;
+
+	private char[] sectionNames;
+
+	//class label -> class id, with the same class and section ids as the arrays above
+	private NBLabelDictionary labels;
+
+	//log P(C|S), indexed by class id
+	private double[] classProbs;
+
+	//log P(S), indexed by section id
+	private double[] sectionProbs;
+
+	//log probability of a feature never observed with the class, indexed by class id
+	private double[] unseenFeatureProbs;
+
+	//feature id -> row of the table
+	private NBIntIntMap featureSlots;
+
+	private int[] featureIds;
+
+	//log P(W|C), one row per feature with one entry per class
+	private NBLogProbTable featureProbs;
+
+	//column of each class in the table, ordered by section when the model is finalized (see sectionOrderedColumns)
+	private int[] classColumns;
+
+	//class of each column
+	private int[] columnClasses;
+
+	//unseen log P(W|C), indexed by column
+	private double[] unseenColumnProbs;
+
+	//the columns of section s are [sectionColumnStarts[s], sectionColumnStarts[s + 1]), null if they are not contiguous
+	private int[] sectionColumnStarts;
+
+	private ThreadLocal<ScoringBuffers> threadBuffers = new ThreadLocal<ScoringBuffers>() {
+		protected ScoringBuffers initialValue() {
+			return new ScoringBuffers();
+		}
+	};
+
+	//class ids of each section
+	private int[][] sectionClasses;
+
+	//log P(W|S), one row per feature with one entry per section (null if not available)
+	private NBLogProbTable sectionFeatureProbs;
+
+	//log probability of a feature never observed with the section, indexed by section id
+	private double[] unseenSectionFeatureProbs;
+
+	/**
+	 * Finalizes the model from the counts in rawData.
+	 * Later changes to rawData are not reflected in the model.
+	 * @param rawData
+	 */
+	public NBModel(NBRawData rawData){
+		this(null, rawData);
+	}
+
+	/**
+	 * Refreshes a model after documents were added to the counts it was finalized from.
+	 * Only the classes marked as changed in rawData (see NBRawData.isClassChanged) get their log probabilities
+	 * recomputed; the entries of the other classes are copied from previous.
+	 * The priors and the unseen feature probability depend on corpus totals and are always recomputed.
+	 * previous is not modified, so it can still be used while the refreshed model is built.
+	 * @param previous model finalized from rawData before the changes (or null to compute everything)
+	 * @param rawData the updated counts
+	 */
+	public NBModel(NBModel previous, NBRawData rawData){
+
+		long start = System.nanoTime();
+		int numberOfClasses = rawData.getNumberOfClasses();
+		int numberOfFeatures = rawData.getNumberOfFeatures();
+
+		classNames = new String[numberOfClasses];
+		classSections = new int[numberOfClasses];
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			classNames[classId] = rawData.getClassName(classId);
+			classSections[classId] = rawData.getClassSection(classId);
+		}
+
+		sectionNames = new char[rawData.getNumberOfSections()];
+		for(int sectionId = 0; sectionId < sectionNames.length; sectionId++){
+			sectionNames[sectionId] = rawData.getSectionName(sectionId);
+		}
+		labels = createLabels();
+
+		featureSlots = new NBIntIntMap(numberOfFeatures);
+		featureIds = new int[numberOfFeatures];
+		for(int slot = 0; slot < numberOfFeatures; slot++){
+			featureIds[slot] = rawData.getFeatureId(slot);
+			featureSlots.put(featureIds[slot], slot);
+		}
+
+		if(previous != null){
+			checkSameLayout(previous);
+
+			//entries of a lower precision model can not be copied, they are computed again
+			if(previous.getPrecision() != NBPrecision.DOUBLE){
+				previous = null;
+			}
+		}
+
+		computeClassAndSectionLogProbabilities(rawData);
+
+		setClassColumns(sectionOrderedColumns(classSections, sectionNames.length));
+
+		computeFeatureLogProbabilities(rawData, previous);
+
+		computeSectionFeatureLogProbabilities(rawData);
+
+		computeSectionClasses();
+
+		NBMetrics.getDefault().timer("model.finalize").recordSince(start);
+	}
+
+	/**
+	 * Checks that the classes and features of previous keep their ids in this model.
+	 */
+	private void checkSameLayout(NBModel previous){
+
+		if(previous.getNumberOfClasses() > classNames.length || previous.getNumberOfFeatures() > featureIds.length){
+			throw new IllegalArgumentException("The counts have less classes or features than the previous model.");
+		}
+		for(int classId = 0; classId < previous.getNumberOfClasses(); classId++){
+			if(!previous.getClassName(classId).equals(classNames[classId])){
+				throw new IllegalArgumentException("Class " + classId + " is " + classNames[classId]
+						+ " in the counts but " + previous.getClassName(classId) + " in the previous model.");
+			}
+		}
+		for(int slot = 0; slot < previous.getNumberOfFeatures(); slot++){
+			if(previous.getFeatureId(slot) != featureIds[slot]){
+				throw new IllegalArgumentException("Feature slot " + slot + " differs between the counts and the previous model.");
+			}
+		}
+	}
+
+	/**
+	 * Creates a model from already computed values (used when loading a model file or changing the precision).
+	 * @param classColumns column of each class in featureProbs
+	 */
+	NBModel(String[] classNames, int[] classSections, char[] sectionNames,
+			double[] classProbs, double[] sectionProbs, double[] unseenFeatureProbs,
+			int[] featureIds, NBLogProbTable featureProbs, int[] classColumns,
+			double[] unseenSectionFeatureProbs, NBLogProbTable sectionFeatureProbs){
+
+		this.classNames = classNames;
+		this.classSections = classSections;
+		this.sectionNames = sectionNames;
+		this.classProbs = classProbs;
+		this.sectionProbs = sectionProbs;
+		this.unseenFeatureProbs = unseenFeatureProbs;
+		this.featureIds = featureIds;
+		this.featureProbs = featureProbs;
+		this.unseenSectionFeatureProbs = unseenSectionFeatureProbs;
+		this.sectionFeatureProbs = sectionFeatureProbs;
+		this.labels = createLabels();
+
+		setClassColumns(classColumns);
+		unseenColumnProbs = toColumns(unseenFeatureProbs);
+
+		computeSectionClasses();
+
+		featureSlots = new NBIntIntMap(featureIds.length);
+		for(int slot = 0; slot < featureIds.length; slot++){
+			featureSlots.put(featureIds[slot], slot);
+		}
+	}
+
+	/**
+	 * Orders the columns of the table by section, so that the classes of a section are read as one contiguous
+	 * range of every row (see scoreSectionClasses). Within a section the classes keep the order of their ids.
+	 * @return the column of each class
+	 */
+	static int[] sectionOrderedColumns(int[] classSections, int numberOfSections){
+
+		int[] starts = new int[numberOfSections + 1];
+		for(int classId = 0; classId < classSections.length; classId++){
+			starts[classSections[classId] + 1]++;
+		}
+		for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+			starts[sectionId + 1] = starts[sectionId + 1] + starts[sectionId];
+		}
+
+		int[] columns = new int[classSections.length];
+		for(int classId = 0; classId < classSections.length; classId++){
+			columns[classId] = starts[classSections[classId]]++;
+		}
+		return columns;
+	}
+
+	/**
+	 * Sets the column of each class, and the column range of each section if their columns are contiguous.
+	 */
+	private void setClassColumns(int[] classColumns){
+
+		this.classColumns = classColumns;
+		columnClasses = new int[classColumns.length];
+		for(int classId = 0; classId < classColumns.length; classId++){
+			columnClasses[classColumns[classId]] = classId;
+		}
+
+		sectionColumnStarts = new int[sectionNames.length + 1];
+		int sectionId = 0;
+		for(int column = 0; column < columnClasses.length; column++){
+			int columnSection = classSections[columnClasses[column]];
+			if(columnSection < sectionId){
+				sectionColumnStarts = null;
+				return;
+			}
+			while(sectionId < columnSection){
+				sectionId++;
+				sectionColumnStarts[sectionId] = column;
+			}
+		}
+		while(sectionId < sectionNames.length){
+			sectionId++;
+			sectionColumnStarts[sectionId] = columnClasses.length;
+		}
+	}
+
+	/**
+	 * @param values one value per class id
+	 * @return the same values, one per column
+	 */
+	private double[] toColumns(double[] values){
+		double[] columnValues = new double[values.length];
+		for(int classId = 0; classId < values.length; classId++){
+			columnValues[classColumns[classId]] = values[classId];
+		}
+		return columnValues;
+	}
+
+	/**
+	 * Interns the class names, registering the sections first so that they keep their ids.
+	 */
+	private NBLabelDictionary createLabels(){
+		NBLabelDictionary dictionary = new NBLabelDictionary();
+		for(char sectionName : sectionNames){
+			dictionary.addSection(sectionName);
+		}
+		for(String className : classNames){
+			dictionary.add(className);
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Pre-computes the log probabilities per section and per class.
+	 */
+	private void computeClassAndSectionLogProbabilities(NBRawData rawData){
+
+		//save the log probability per class
+		classProbs = new double[classNames.length];
+
+		for(int classId = 0; classId < classProbs.length; classId++){
+
+			//the class probability is only computed given a section (the section of the class)
+			double probability =  (double)rawData.getClassTotalCount(classId)
+					/(double)rawData.getSectionTotalCount(classSections[classId]);
+			classProbs[classId] = Math.log(probability);
+		}
+
+
+		//save the probability per section
+		sectionProbs = new double[sectionNames.length];
+
+		//first compute the total number of observations
+		double total = 0d;
+		for(int sectionId = 0; sectionId < sectionProbs.length; sectionId++){
+
+			total = total + rawData.getSectionTotalCount(sectionId);
+		}
+
+		//save the probability per section as the number of times we observed the section/number of observations
+		for(int sectionId = 0; sectionId < sectionProbs.length; sectionId++){
+			double probability = (double)rawData.getSectionTotalCount(sectionId)/total;
+			sectionProbs[sectionId] = Math.log(probability);
+
+		}
+
+	}
+
+	/**
+	 * Pre-computes the log probability of every feature given every class.
+	 * Observed features take the multinomial approach with add one smoothing,
+	 * features not observed for a class get a constant probability of observing a previously non-observed feature.
+	 * Observed entries of classes not changed since previous was finalized are copied from it.
+	 * The table is allocated in the storage of rawData.
+	 */
+	private void computeFeatureLogProbabilities(NBRawData rawData, NBModel previous){
+
+		int numberOfClasses = classNames.length;
+
+		//compute the complete total counts
+		double totalCounts = 0;
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			totalCounts = totalCounts + rawData.getClassTotalCount(classId);
+		}
+
+		double numberOfDifferentFeatures = featureIds.length;
+
+		//the unseen probability is the same for all classes
+		unseenFeatureProbs = new double[numberOfClasses];
+		double unseenFeatureProb = Math.log(1d/(totalCounts + numberOfDifferentFeatures));
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			unseenFeatureProbs[classId] = unseenFeatureProb;
+		}
+		unseenColumnProbs = toColumns(unseenFeatureProbs);
+
+		//every entry starts as unseen and the observed ones are overwritten per class
+		NBWritableLogProbTable table = rawData.getStorage().newTable(featureIds.length, numberOfClasses);
+		for(int slot = 0; slot < featureIds.length; slot++){
+			table.setRow(slot, unseenColumnProbs);
+		}
+
+		for(int classId = 0; classId < numberOfClasses; classId++){
+
+			NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+			double total = (double)rawData.getFeatureCountTotal(classId) + featureCounts.size();
+
+			boolean unchanged = previous != null && classId < previous.getNumberOfClasses() && !rawData.isClassChanged(classId);
+			int column = classColumns[classId];
+
+			for(int entry = 0; entry < featureCounts.capacity(); entry++){
+				if(featureCounts.isUsed(entry)){
+					int slot = featureCounts.keyAt(entry);
+					if(unchanged){
+						table.set(slot, column, previous.getFeatureProb(slot, classId));
+					}
+					else{
+						double temp = featureCounts.valueAt(entry) + 1d;
+						table.set(slot, column, Math.log(temp/total));
+					}
+				}
+			}
+		}
+
+		featureProbs = table;
+	}
+
+	/**
+	 * Pre-computes the log probability of every feature given every section, taking the counts
+	 * of all the classes of a section together. Same smoothing as for the classes.
+	 */
+	private void computeSectionFeatureLogProbabilities(NBRawData rawData){
+
+		int numberOfSections = sectionNames.length;
+		int numberOfFeatures = featureIds.length;
+
+		double[] counts = new double[numberOfFeatures * numberOfSections];
+		double[] totals = new double[numberOfSections];
+
+		for(int classId = 0; classId < classNames.length; classId++){
+
+			int sectionId = classSections[classId];
+			totals[sectionId] = totals[sectionId] + rawData.getFeatureCountTotal(classId);
+
+			NBCountMap featureCounts = rawData.getFeatureCounts(classId);
+			for(int entry = 0; entry < featureCounts.capacity(); entry++){
+				if(featureCounts.isUsed(entry)){
+					int cell = featureCounts.keyAt(entry) * numberOfSections + sectionId;
+					counts[cell] = counts[cell] + featureCounts.valueAt(entry);
+				}
+			}
+		}
+
+		//the number of different features observed per section completes the denominator
+		for(int cell = 0; cell < counts.length; cell++){
+			if(counts[cell] > 0){
+				totals[cell % numberOfSections]++;
+			}
+		}
+
+		unseenSectionFeatureProbs = new double[numberOfSections];
+		for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+			unseenSectionFeatureProbs[sectionId] = unseenFeatureProbs.length == 0 ? 0d : unseenFeatureProbs[0];
+		}
+
+		//the counts are replaced by their log probability
+		for(int cell = 0; cell < counts.length; cell++){
+			int sectionId = cell % numberOfSections;
+			counts[cell] = counts[cell] > 0 ? Math.log((counts[cell] + 1d)/totals[sectionId]) : unseenSectionFeatureProbs[sectionId];
+		}
+
+		sectionFeatureProbs = new NBArrayLogProbTable(counts, numberOfFeatures, numberOfSections);
+	}
+
+	private void computeSectionClasses(){
+
+		int[] sizes = new int[sectionNames.length];
+		for(int classId = 0; classId < classNames.length; classId++){
+			sizes[classSections[classId]]++;
+		}
+
+		sectionClasses = new int[sectionNames.length][];
+		for(int sectionId = 0; sectionId < sectionNames.length; sectionId++){
+			sectionClasses[sectionId] = new int[sizes[sectionId]];
+			sizes[sectionId] = 0;
+		}
+		for(int classId = 0; classId < classNames.length; classId++){
+			int sectionId = classSections[classId];
+			sectionClasses[sectionId][sizes[sectionId]++] = classId;
+		}
+	}
+
+	public int getNumberOfClasses() {
+		return classNames.length;
+	}
+
+	public String getClassName(int classId) {
+		return classNames[classId];
+	}
+
+	/**
+	 * @param className
+	 * @return the id of the class, or -1 if the model does not have it
+	 */
+	public int getClassId(String className) {
+		return labels.getId(className);
+	}
+
+	/**
+	 * Same as getClassId(String) for the characters text[start, end), without allocating.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return the id of the class, or -1 if the model does not have it
+	 */
+	public int getClassId(CharSequence text, int start, int end) {
+		return labels.getId(text, start, end);
+	}
+
+	public int getClassSection(int classId) {
+		return classSections[classId];
+	}
+
+	public int getNumberOfSections() {
+		return sectionNames.length;
+	}
+
+	public char getSectionName(int sectionId) {
+		return sectionNames[sectionId];
+	}
+
+	public double getClassProb(int classId) {
+		return classProbs[classId];
+	}
+
+	public double getSectionProb(int sectionId) {
+		return sectionProbs[sectionId];
+	}
+
+	public double getUnseenFeatureProb(int classId) {
+		return unseenFeatureProbs[classId];
+	}
+
+	/**
+	 * @param classId
+	 * @return column of the class in the table of log P(W|C)
+	 */
+	public int getClassColumn(int classId) {
+		return classColumns[classId];
+	}
+
+	/**
+	 * @return whether the classes of every section are a contiguous range of columns (always for a model finalized or
+	 * saved with this version, see scoreSectionClasses)
+	 */
+	public boolean hasContiguousSections() {
+		return sectionColumnStarts != null;
+	}
+
+	//column of each class, for NBModelFile
+	int[] getClassColumns() {
+		return classColumns;
+	}
+
+	/**
+	 * @param sectionId
+	 * @return ids of the classes of the section
+	 */
+	public int[] getSectionClasses(int sectionId) {
+		return sectionClasses[sectionId];
+	}
+
+	/**
+	 * @return whether the section level statistics are available (models saved with version 1 do not have them)
+	 */
+	public boolean hasSectionStatistics() {
+		return sectionFeatureProbs != null;
+	}
+
+	public double getUnseenSectionFeatureProb(int sectionId) {
+		return unseenSectionFeatureProbs[sectionId];
+	}
+
+	/**
+	 * @param slot row of the feature (see getFeatureSlot)
+	 * @param sectionId
+	 * @return log P(W|S)
+	 */
+	public double getSectionFeatureProb(int slot, int sectionId) {
+		return sectionFeatureProbs.get(slot, sectionId);
+	}
+
+	/**
+	 * @return approximate number of bytes held by the model, including memory mapped tables
+	 */
+	public long getMemoryFootprint() {
+
+		long bytes = (long)featureProbs.getNumberOfRows() * featureProbs.getNumberOfColumns() * featureProbs.getPrecision().getBytesPerValue();
+		if(sectionFeatureProbs != null){
+			bytes = bytes + (long)sectionFeatureProbs.getNumberOfRows() * sectionFeatureProbs.getNumberOfColumns() * 8;
+		}
+
+		//feature ids and the open addressing map from ids to slots
+		bytes = bytes + featureIds.length * 4L + featureSlots.capacity() * 8L;
+
+		//per class and per section arrays
+		bytes = bytes + classNames.length * (8L + 8 + 8 + 4 + 4 + 4 + 4) + sectionNames.length * (2L + 8 + 8 + 4);
+		for(String className : classNames){
+			bytes = bytes + 40 + className.length() * 2L;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return precision of the stored log P(W|C)
+	 */
+	public NBPrecision getPrecision() {
+		return featureProbs.getPrecision();
+	}
+
+	/**
+	 * Returns a model sharing everything with this one but the table of log P(W|C), stored with the given precision.
+	 * Converting to a higher precision than the current one does not restore the lost digits.
+	 * @param precision
+	 * @return this model if it already has that precision, a converted model otherwise
+	 */
+	public NBModel withPrecision(NBPrecision precision) {
+
+		if(precision == getPrecision()){
+			return this;
+		}
+
+		NBLogProbTable table;
+		if(precision == NBPrecision.FLOAT){
+			table = NBFloatLogProbTable.of(featureProbs);
+		}
+		else if(precision == NBPrecision.INT16){
+			table = NBQuantizedLogProbTable.of(featureProbs);
+		}
+		else{
+			double[] values = new double[featureProbs.getNumberOfRows() * featureProbs.getNumberOfColumns()];
+			for(int slot = 0; slot < featureProbs.getNumberOfRows(); slot++){
+				for(int column = 0; column < featureProbs.getNumberOfColumns(); column++){
+					values[slot * featureProbs.getNumberOfColumns() + column] = featureProbs.get(slot, column);
+				}
+			}
+			table = new NBArrayLogProbTable(values, featureProbs.getNumberOfRows(), featureProbs.getNumberOfColumns());
+		}
+
+		return new NBModel(classNames, classSections, sectionNames, classProbs, sectionProbs, unseenFeatureProbs,
+				featureIds, table, classColumns, unseenSectionFeatureProbs, sectionFeatureProbs);
+	}
+
+	/**
+	 * Returns a model sharing everything with this one, including the values of the table of log P(W|C),
+	 * that adds the rows of the table with the vector kernel (see NBVectorKernel). The scores are the same.
+	 * @return the model scored with the vector kernel
+	 * @throws UnsupportedOperationException if the vector kernel is not available
+	 * @throws IllegalArgumentException if the kernel does not support the precision of the model
+	 */
+	public NBModel withVectorKernel() {
+		return new NBModel(classNames, classSections, sectionNames, classProbs, sectionProbs, unseenFeatureProbs,
+				featureIds, NBVectorKernel.vectorize(featureProbs), classColumns, unseenSectionFeatureProbs, sectionFeatureProbs);
+	}
+
+	NBLogProbTable getFeatureProbs() {
+		return featureProbs;
+	}
+
+	NBLogProbTable getSectionFeatureProbs() {
+		return sectionFeatureProbs;
+	}
+
+	public int getNumberOfFeatures() {
+		return featureIds.length;
+	}
+
+	public int getFeatureId(int slot) {
+		return featureIds[slot];
+	}
+
+	/**
+	 * @param featureIndex
+	 * @return the row of the feature in the table, or -1 if the feature was never observed
+	 */
+	public int getFeatureSlot(int featureIndex) {
+		return featureSlots.get(featureIndex, -1);
+	}
+
+	/**
+	 * @param slot row of the feature (see getFeatureSlot)
+	 * @param classId
+	 * @return log P(W|C)
+	 */
+	public double getFeatureProb(int slot, int classId) {
+		return featureProbs.get(slot, classColumns[classId]);
+	}
+
+	/**
+	 * Per thread buffers of the scoring methods, grown to the longest vector seen.
+	 */
+	private class ScoringBuffers {
+
+		//scores being accumulated, indexed by column
+		double[] columnScores = new double[classNames.length];
+
+		//columns of the classes being scored
+		int[] columns = new int[classNames.length];
+
+		int[] classIds = new int[classNames.length];
+
+		//rows of the features of the document seen at training time and their counts (see gatherRows)
+		int[] slots = new int[64];
+
+		double[] weights = new double[64];
+
+		int numberOfRows;
+
+		//total count of the features not seen at training time
+		double unseenCount;
+	}
+
+	/**
+	 * Computes the log probability of every class for the given document vector and stores it in scores.
+	 * The vector is walked once, adding the row of each feature to the accumulators of all classes.
+	 * P(A|W) = Prod(P(Wi|C)) * P(C|S) * P(S) / P(W)
+	 * P(W) is the same for all classes hence, it is ignored.
+	 * @param vector parsed document vector
+	 * @param scores output, one entry per class (at least getNumberOfClasses() long)
+	 */
+	public void score(NBSparseVector vector, double[] scores){
+
+		int numberOfClasses = classNames.length;
+		ScoringBuffers buffers = threadBuffers.get();
+		double[] columnScores = buffers.columnScores;
+
+		for(int column = 0; column < numberOfClasses; column++){
+			columnScores[column] = 0d;
+		}
+
+		if(featureProbs.getPrecision() != NBPrecision.DOUBLE){
+			//lower precision tables sum their rows in their own representation (see NBLogProbTable.addRows)
+			gatherRows(vector, buffers);
+			addUnseen(buffers.unseenCount, columnScores, 0, numberOfClasses);
+			featureProbs.addRows(buffers.slots, buffers.weights, buffers.numberOfRows, columnScores);
+		}
+		else{
+			for(int entry = 0; entry < vector.size(); entry++){
+
+				int slot = featureSlots.get(vector.getFeatureId(entry), -1);
+				double v = vector.getCount(entry);
+
+				if(slot < 0){
+					//features never observed at training time get the constant unseen probability
+					addUnseen(v, columnScores, 0, numberOfClasses);
+				}
+				else{
+					featureProbs.addRow(slot, v, columnScores);
+				}
+			}
+		}
+
+		//correct with the class (given a section) and the section predictions
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			scores[classId] = sectionProbs[classSections[classId]] + (classProbs[classId] + columnScores[classColumns[classId]]);
+		}
+	}
+
+	/**
+	 * Gathers the rows of the seen features of the document and the total count of the unseen ones into the buffers,
+	 * for the lower precision tables that add the rows of a document at once.
+	 */
+	private void gatherRows(NBSparseVector vector, ScoringBuffers buffers){
+
+		if(buffers.slots.length < vector.size()){
+			buffers.slots = new int[vector.size()];
+			buffers.weights = new double[vector.size()];
+		}
+
+		int numberOfRows = 0;
+		double unseenCount = 0;
+		for(int entry = 0; entry < vector.size(); entry++){
+			int slot = featureSlots.get(vector.getFeatureId(entry), -1);
+			if(slot < 0){
+				unseenCount = unseenCount + vector.getCount(entry);
+			}
+			else{
+				buffers.slots[numberOfRows] = slot;
+				buffers.weights[numberOfRows] = vector.getCount(entry);
+				numberOfRows++;
+			}
+		}
+		buffers.numberOfRows = numberOfRows;
+		buffers.unseenCount = unseenCount;
+	}
+
+	//adds count times the unseen probability to the columns [fromColumn, toColumn)
+	private void addUnseen(double count, double[] columnScores, int fromColumn, int toColumn){
+		if(count != 0){
+			for(int column = fromColumn; column < toColumn; column++){
+				columnScores[column] = columnScores[column] + unseenColumnProbs[column]*count;
+			}
+		}
+	}
+
+	/**
+	 * Same as score but only for the given classes, the other entries of scores are left untouched.
+	 * The selected classes get exactly the score computed by score.
+	 * @param vector parsed document vector
+	 * @param scores output, one entry per class (at least getNumberOfClasses() long)
+	 * @param classIds classes to score
+	 * @param numberOfClassIds number of valid entries in classIds
+	 */
+	public void scoreClasses(NBSparseVector vector, double[] scores, int[] classIds, int numberOfClassIds){
+
+		ScoringBuffers buffers = threadBuffers.get();
+		double[] columnScores = buffers.columnScores;
+		int[] columns = buffers.columns;
+
+		for(int index = 0; index < numberOfClassIds; index++){
+			columns[index] = classColumns[classIds[index]];
+			columnScores[columns[index]] = 0d;
+		}
+
+		if(featureProbs.getPrecision() != NBPrecision.DOUBLE){
+			//summed as in score, so the selected classes get the same scores
+			gatherRows(vector, buffers);
+			if(buffers.unseenCount != 0){
+				for(int index = 0; index < numberOfClassIds; index++){
+					int column = columns[index];
+					columnScores[column] = columnScores[column] + unseenColumnProbs[column]*buffers.unseenCount;
+				}
+			}
+			featureProbs.addRows(buffers.slots, buffers.weights, buffers.numberOfRows, columnScores, columns, numberOfClassIds);
+		}
+		else{
+			for(int entry = 0; entry < vector.size(); entry++){
+
+				int slot = featureSlots.get(vector.getFeatureId(entry), -1);
+				double v = vector.getCount(entry);
+
+				if(slot < 0){
+					for(int index = 0; index < numberOfClassIds; index++){
+						int column = columns[index];
+						columnScores[column] = columnScores[column] + unseenColumnProbs[column]*v;
+					}
+				}
+				else{
+					featureProbs.addRow(slot, v, columnScores, columns, numberOfClassIds);
+				}
+			}
+		}
+
+		for(int index = 0; index < numberOfClassIds; index++){
+			int classId = classIds[index];
+			scores[classId] = sectionProbs[classSections[classId]] + (classProbs[classId] + columnScores[columns[index]]);
+		}
+	}
+
+	/**
+	 * Same as scoreClasses for all the classes of the given sections. When the classes of the sections are contiguous
+	 * columns (see hasContiguousSections) every row is read as one contiguous range per section instead of column by column.
+	 * @param vector parsed document vector
+	 * @param scores output, one entry per class (at least getNumberOfClasses() long)
+	 * @param sectionIds sections whose classes are scored
+	 * @param numberOfSectionIds number of valid entries in sectionIds
+	 */
+	public void scoreSectionClasses(NBSparseVector vector, double[] scores, int[] sectionIds, int numberOfSectionIds){
+
+		ScoringBuffers buffers = threadBuffers.get();
+
+		if(sectionColumnStarts == null){
+			int numberOfClassIds = 0;
+			for(int index = 0; index < numberOfSectionIds; index++){
+				int[] classes = sectionClasses[sectionIds[index]];
+				System.arraycopy(classes, 0, buffers.classIds, numberOfClassIds, classes.length);
+				numberOfClassIds = numberOfClassIds + classes.length;
+			}
+			scoreClasses(vector, scores, buffers.classIds, numberOfClassIds);
+			return;
+		}
+
+		double[] columnScores = buffers.columnScores;
+		for(int index = 0; index < numberOfSectionIds; index++){
+			int sectionId = sectionIds[index];
+			for(int column = sectionColumnStarts[sectionId]; column < sectionColumnStarts[sectionId + 1]; column++){
+				columnScores[column] = 0d;
+			}
+		}
+
+		if(featureProbs.getPrecision() != NBPrecision.DOUBLE){
+			gatherRows(vector, buffers);
+			for(int index = 0; index < numberOfSectionIds; index++){
+				int sectionId = sectionIds[index];
+				int fromColumn = sectionColumnStarts[sectionId];
+				int toColumn = sectionColumnStarts[sectionId + 1];
+				addUnseen(buffers.unseenCount, columnScores, fromColumn, toColumn);
+				featureProbs.addRows(buffers.slots, buffers.weights, buffers.numberOfRows, columnScores, fromColumn, toColumn);
+			}
+		}
+		else{
+			for(int entry = 0; entry < vector.size(); entry++){
+
+				int slot = featureSlots.get(vector.getFeatureId(entry), -1);
+				double v = vector.getCount(entry);
+
+				for(int index = 0; index < numberOfSectionIds; index++){
+					int sectionId = sectionIds[index];
+					if(slot < 0){
+						addUnseen(v, columnScores, sectionColumnStarts[sectionId], sectionColumnStarts[sectionId + 1]);
+					}
+					else{
+						featureProbs.addRow(slot, v, columnScores, sectionColumnStarts[sectionId], sectionColumnStarts[sectionId + 1]);
+					}
+				}
+			}
+		}
+
+		for(int index = 0; index < numberOfSectionIds; index++){
+			int sectionId = sectionIds[index];
+			for(int column = sectionColumnStarts[sectionId]; column < sectionColumnStarts[sectionId + 1]; column++){
+				int classId = columnClasses[column];
+				scores[classId] = sectionProbs[sectionId] + (classProbs[classId] + columnScores[column]);
+			}
+		}
+	}
+
+	/**
+	 * Computes the log probability of every section for the given document vector from the section level statistics:
+	 * log P(S) + Sum(log P(Wi|S)). Requires hasSectionStatistics().
+	 * @param vector parsed document vector
+	 * @param scores output, one entry per section (at least getNumberOfSections() long)
+	 */
+	public void scoreSections(NBSparseVector vector, double[] scores){
+
+		int numberOfSections = sectionNames.length;
+
+		for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+			scores[sectionId] = 0d;
+		}
+
+		for(int entry = 0; entry < vector.size(); entry++){
+
+			int slot = featureSlots.get(vector.getFeatureId(entry), -1);
+			double v = vector.getCount(entry);
+
+			if(slot < 0){
+				for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+					scores[sectionId] = scores[sectionId] + unseenSectionFeatureProbs[sectionId]*v;
+				}
+			}
+			else{
+				sectionFeatureProbs.addRow(slot, v, scores);
+			}
+		}
+
+		for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+			scores[sectionId] = sectionProbs[sectionId] + scores[sectionId];
+		}
+	}
+
+}
@@ -0,0 +1,328 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * @author andresaan
+ * Saves a finalized NBModel to a binary file and loads it back, so that predictions do not need to retrain.
+ *
+ * Layout (all values little endian):
+ *   int magic, int version, int classes, int sections, int features, [int precision (since version 3),] long tableOffset
+ *   sections x char name
+ *   classes x (int section, int nameLength, nameLength bytes of UTF-8 name)
+ *   classes x int column of the class in the table (since version 4)
+ *   classes x double log P(C|S), sections x double log P(S), classes x double unseen log P(W|C)
+ *   sections x double unseen log P(W|S) (since version 2)
+ *   columns x (double base, double scale) (only with precision INT16)
+ *   features x int feature id
+ *   padding up to tableOffset (multiple of 8)
+ *   features x columns log P(W|C), row after row, as double, float or short (see NBPrecision)
+ *   padding up to a multiple of 8
+ *   features x sections double log P(W|S), row after row (since version 2)
+ *
+ * A double precision table is memory mapped when loading, so the model is ready in milliseconds
+ * and several processes on the same host share a single copy of it;
+ * lower precision tables are copied to the heap instead (their scoring loops run over arrays), so every process
+ * holds its own copy of them: a float or int16 table saves memory per process but is not shared between processes.
+ * Files of version 1 are still loaded, without the section level statistics, files of version 2 in double precision
+ * and files before version 4 with column c holding class c (their sections are scored column by column,
+ * see NBModel.hasContiguousSections).
+ */
+public class NBModelFile {
+
+	public static final int MAGIC = 0x4E424D44;
+
+	public static final int VERSION = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Saves the model to fileName, replacing the file if it exists.
+	 * The model is written to a temporary file first and then moved over fileName,
+	 * so processes that mapped the previous file keep reading a consistent model.
+	 * @param model
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public static void save(NBModel model, String fileName) throws IOException {
+
+		File target = new File(fileName).getAbsoluteFile();
+		File temporary = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		try {
+			write(model, temporary);
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	private static void write(NBModel model, File target) throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(target, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			int numberOfClasses = model.getNumberOfClasses();
+			int numberOfSections = model.getNumberOfSections();
+			int numberOfFeatures = model.getNumberOfFeatures();
+			NBPrecision precision = model.getPrecision();
+			NBLogProbTable featureProbs = model.getFeatureProbs();
+
+			byte[][] classNames = new byte[numberOfClasses][];
+			long headerSize = 6 * 4 + 8 + numberOfSections * 2;
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				classNames[classId] = model.getClassName(classId).getBytes(UTF8);
+				headerSize = headerSize + 8 + classNames[classId].length;
+			}
+			headerSize = headerSize + numberOfClasses * 4;
+			headerSize = headerSize + (numberOfClasses * 2 + numberOfSections * 2) * 8 + numberOfFeatures * 4;
+			if(precision == NBPrecision.INT16){
+				headerSize = headerSize + numberOfClasses * 2 * 8;
+			}
+			long tableOffset = (headerSize + 7) & ~7L;
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(numberOfClasses);
+			buffer.putInt(numberOfSections);
+			buffer.putInt(numberOfFeatures);
+			buffer.putInt(precision.ordinal());
+			buffer.putLong(tableOffset);
+
+			for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+				buffer.putChar(model.getSectionName(sectionId));
+			}
+
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				ensureRemaining(channel, buffer, 8 + classNames[classId].length);
+				buffer.putInt(model.getClassSection(classId));
+				buffer.putInt(classNames[classId].length);
+				buffer.put(classNames[classId]);
+			}
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				ensureRemaining(channel, buffer, 4);
+				buffer.putInt(model.getClassColumn(classId));
+			}
+
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				ensureRemaining(channel, buffer, 8);
+				buffer.putDouble(model.getClassProb(classId));
+			}
+			for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+				ensureRemaining(channel, buffer, 8);
+				buffer.putDouble(model.getSectionProb(sectionId));
+			}
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				ensureRemaining(channel, buffer, 8);
+				buffer.putDouble(model.getUnseenFeatureProb(classId));
+			}
+			for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+				ensureRemaining(channel, buffer, 8);
+				buffer.putDouble(model.getUnseenSectionFeatureProb(sectionId));
+			}
+			if(precision == NBPrecision.INT16){
+				NBQuantizedLogProbTable quantized = (NBQuantizedLogProbTable)featureProbs;
+				for(int column = 0; column < numberOfClasses; column++){
+					ensureRemaining(channel, buffer, 16);
+					buffer.putDouble(quantized.getBase(column));
+					buffer.putDouble(quantized.getScale(column));
+				}
+			}
+
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				ensureRemaining(channel, buffer, 4);
+				buffer.putInt(model.getFeatureId(slot));
+			}
+
+			for(long padding = headerSize; padding < tableOffset; padding++){
+				ensureRemaining(channel, buffer, 1);
+				buffer.put((byte)0);
+			}
+
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				for(int column = 0; column < numberOfClasses; column++){
+					ensureRemaining(channel, buffer, 8);
+					if(precision == NBPrecision.DOUBLE){
+						buffer.putDouble(featureProbs.get(slot, column));
+					}
+					else if(precision == NBPrecision.FLOAT){
+						buffer.putFloat((float)featureProbs.get(slot, column));
+					}
+					else{
+						buffer.putShort(((NBQuantizedLogProbTable)featureProbs).getQuantized(slot, column));
+					}
+				}
+			}
+
+			long tableBytes = (long)numberOfFeatures * numberOfClasses * precision.getBytesPerValue();
+			for(long padding = tableBytes; padding < sectionTableOffset(tableOffset, tableBytes) - tableOffset; padding++){
+				ensureRemaining(channel, buffer, 1);
+				buffer.put((byte)0);
+			}
+
+			for(int slot = 0; slot < numberOfFeatures; slot++){
+				for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+					ensureRemaining(channel, buffer, 8);
+					buffer.putDouble(model.getSectionFeatureProb(slot, sectionId));
+				}
+			}
+
+			flush(channel, buffer);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static long sectionTableOffset(long tableOffset, long tableBytes){
+		return (tableOffset + tableBytes + 7) & ~7L;
+	}
+
+	private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if(buffer.remaining() < bytes){
+			flush(channel, buffer);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Loads a model saved with save. The table of log probabilities is memory mapped, not copied.
+	 * @param fileName
+	 * @return the model
+	 * @throws IOException if the file can not be read or is not a model file of a supported version
+	 */
+	public static NBModel load(String fileName) throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+
+			//the mappings stay valid once the file is closed
+			ByteBuffer fixedHeader = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+			while(fixedHeader.hasRemaining() && channel.read(fixedHeader) >= 0){
+				//keep reading until the fixed header is complete
+			}
+			fixedHeader.flip();
+			if(fixedHeader.remaining() < 32 || fixedHeader.getInt() != MAGIC){
+				throw new IOException("The file " + fileName + " is not a model file.");
+			}
+			int version = fixedHeader.getInt();
+			if(version < 1 || version > VERSION){
+				throw new IOException("The model file " + fileName + " has version " + version + ", expected 1 to " + VERSION + ".");
+			}
+
+			int numberOfClasses = fixedHeader.getInt();
+			int numberOfSections = fixedHeader.getInt();
+			int numberOfFeatures = fixedHeader.getInt();
+			int precisionIndex = version < 3 ? NBPrecision.DOUBLE.ordinal() : fixedHeader.getInt();
+			if(precisionIndex < 0 || precisionIndex >= NBPrecision.values().length){
+				throw new IOException("The model file " + fileName + " has an unknown precision " + precisionIndex + ".");
+			}
+			NBPrecision precision = NBPrecision.values()[precisionIndex];
+			long tableOffset = fixedHeader.getLong();
+			int fixedHeaderSize = fixedHeader.position();
+
+			long tableBytes = (long)numberOfFeatures * numberOfClasses * precision.getBytesPerValue();
+			long sectionTableOffset = sectionTableOffset(tableOffset, tableBytes);
+			long end = version == 1 ? sectionTableOffset : sectionTableOffset + (long)numberOfFeatures * numberOfSections * 8;
+			if(end > channel.size()){
+				throw new IOException("The model file " + fileName + " is truncated.");
+			}
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, tableOffset);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.position(fixedHeaderSize);
+
+			char[] sectionNames = new char[numberOfSections];
+			for(int sectionId = 0; sectionId < numberOfSections; sectionId++){
+				sectionNames[sectionId] = header.getChar();
+			}
+
+			String[] classNames = new String[numberOfClasses];
+			int[] classSections = new int[numberOfClasses];
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				classSections[classId] = header.getInt();
+				byte[] name = new byte[header.getInt()];
+				header.get(name);
+				classNames[classId] = new String(name, UTF8);
+			}
+
+			int[] classColumns = new int[numberOfClasses];
+			boolean[] usedColumns = new boolean[numberOfClasses];
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				classColumns[classId] = version < 4 ? classId : header.getInt();
+				if(classColumns[classId] < 0 || classColumns[classId] >= numberOfClasses || usedColumns[classColumns[classId]]){
+					throw new IOException("The model file " + fileName + " has an invalid column " + classColumns[classId] + " for class " + classId + ".");
+				}
+				usedColumns[classColumns[classId]] = true;
+			}
+
+			double[] classProbs = readDoubles(header, numberOfClasses);
+			double[] sectionProbs = readDoubles(header, numberOfSections);
+			double[] unseenFeatureProbs = readDoubles(header, numberOfClasses);
+			double[] unseenSectionFeatureProbs = version == 1 ? null : readDoubles(header, numberOfSections);
+
+			double[] bases = new double[numberOfClasses];
+			double[] scales = new double[numberOfClasses];
+			if(precision == NBPrecision.INT16){
+				for(int column = 0; column < numberOfClasses; column++){
+					bases[column] = header.getDouble();
+					scales[column] = header.getDouble();
+				}
+			}
+
+			int[] featureIds = new int[numberOfFeatures];
+			header.asIntBuffer().get(featureIds);
+
+			NBLogProbTable featureProbs;
+			if(precision == NBPrecision.DOUBLE){
+				featureProbs = new NBMappedLogProbTable(channel, tableOffset, numberOfFeatures, numberOfClasses);
+			}
+			else if(precision == NBPrecision.FLOAT){
+				float[] values = new float[numberOfFeatures * numberOfClasses];
+				channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, tableBytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+				featureProbs = new NBFloatLogProbTable(values, numberOfFeatures, numberOfClasses);
+			}
+			else{
+				short[] values = new short[numberOfFeatures * numberOfClasses];
+				channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, tableBytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(values);
+				featureProbs = new NBQuantizedLogProbTable(values, bases, scales, numberOfFeatures, numberOfClasses);
+			}
+			NBLogProbTable sectionFeatureProbs = version == 1 ? null
+					: new NBMappedLogProbTable(channel, sectionTableOffset, numberOfFeatures, numberOfSections);
+
+			return new NBModel(classNames, classSections, sectionNames,
+					classProbs, sectionProbs, unseenFeatureProbs, featureIds, featureProbs, classColumns,
+					unseenSectionFeatureProbs, sectionFeatureProbs);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static double[] readDoubles(ByteBuffer buffer, int length){
+		double[] values = new double[length];
+		for(int index = 0; index < length; index++){
+			values[index] = buffer.getDouble();
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,135 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * @author andresaan
+ * NBCountMap with the same open addressing scheme as NBIntIntMap, but with its entries (key and value,
+ * 8 bytes) in a buffer allocated by an NBStorage: a direct buffer or a mapping of a temporary file.
+ * The garbage collector only sees the buffer object, whatever the number of entries.
+ * The buffer of a map can hold at most 2^28 entries.
+ */
+public class NBOffHeapIntIntMap implements NBCountMap {
+
+	private static final int FREE_KEY = Integer.MIN_VALUE;
+
+	//allocating a buffer costs more than for an array, so maps do not start too small
+	private static final int MIN_CAPACITY = 1024;
+
+	private static final int MAX_CAPACITY = 1 << 28;
+
+	private NBStorage storage;
+
+	private ByteBuffer entries;
+
+	private int capacity;
+
+	private int size;
+
+	private int mask;
+
+	/**
+	 * @param storage where the buffers of the map are allocated
+	 */
+	public NBOffHeapIntIntMap(NBStorage storage) {
+		this.storage = storage;
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int newCapacity){
+		if(newCapacity > MAX_CAPACITY){
+			throw new IllegalStateException("An off heap map can not hold more than " + (MAX_CAPACITY / 4 * 3) + " entries.");
+		}
+		capacity = newCapacity;
+		entries = storage.allocate(capacity * 8);
+		for(int slot = 0; slot < capacity; slot++){
+			entries.putInt(slot << 3, FREE_KEY);
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Spreads the bits of the key so that consecutive ids do not cluster (same as NBIntIntMap).
+	 */
+	private static int hash(int key){
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the slot holding the key, or the free slot where it would be inserted.
+	 */
+	private int findSlot(int key){
+		int slot = hash(key) & mask;
+		int slotKey;
+		while((slotKey = entries.getInt(slot << 3)) != FREE_KEY && slotKey != key){
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	public int get(int key, int defaultValue){
+		int slot = findSlot(key);
+		return entries.getInt(slot << 3) == FREE_KEY ? defaultValue : entries.getInt((slot << 3) + 4);
+	}
+
+	public int add(int key, int delta){
+		int slot = findSlot(key);
+		if(entries.getInt(slot << 3) == FREE_KEY){
+			insert(slot, key, delta);
+			return delta;
+		}
+		int value = entries.getInt((slot << 3) + 4) + delta;
+		entries.putInt((slot << 3) + 4, value);
+		return value;
+	}
+
+	private void insert(int slot, int key, int value){
+		if(key == FREE_KEY){
+			throw new IllegalArgumentException("Key " + key + " is reserved.");
+		}
+		entries.putInt(slot << 3, key);
+		entries.putInt((slot << 3) + 4, value);
+		size++;
+
+		//keep the load factor under 0.75
+		if(size * 4 > capacity * 3){
+			rehash(capacity << 1);
+		}
+	}
+
+	private void rehash(int newCapacity){
+		ByteBuffer oldEntries = entries;
+		int oldCapacity = capacity;
+		allocate(newCapacity);
+		for(int oldSlot = 0; oldSlot < oldCapacity; oldSlot++){
+			int key = oldEntries.getInt(oldSlot << 3);
+			if(key != FREE_KEY){
+				int slot = findSlot(key);
+				entries.putInt(slot << 3, key);
+				entries.putInt((slot << 3) + 4, oldEntries.getInt((oldSlot << 3) + 4));
+			}
+		}
+		storage.release(oldEntries);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int capacity(){
+		return capacity;
+	}
+
+	public boolean isUsed(int slot){
+		return entries.getInt(slot << 3) != FREE_KEY;
+	}
+
+	public int keyAt(int slot){
+		return entries.getInt(slot << 3);
+	}
+
+	public int valueAt(int slot){
+		return entries.getInt((slot << 3) + 4);
+	}
+
+}
@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+
+/**
+ * @author andresaan
+ * Splits the command line into positional arguments and options given as "-name value".
+ * An option without a value (the last element) is rejected rather than taken as a positional argument,
+ * which would shift the file arguments.
+ */
+public class NBOptions {
+
+	private List<String> arguments = new ArrayList<String>();
+
+	private LinkedHashMap<String, String> options = new LinkedHashMap<String, String>();
+
+	/**
+	 * @param args
+	 * @throws IllegalArgumentException if the last element is an option, without a value
+	 */
+	public NBOptions(String[] args) {
+
+		for(int argIndex = 0; argIndex < args.length; argIndex++){
+
+			//an option always takes the next element as its value
+			if(args[argIndex].startsWith("-") && args[argIndex].length() > 1){
+				if(argIndex + 1 == args.length){
+					throw new IllegalArgumentException("Option " + args[argIndex] + " expects a value.");
+				}
+				options.put(args[argIndex].substring(1), args[argIndex + 1]);
+				argIndex++;
+			}
+			else{
+				arguments.add(args[argIndex]);
+			}
+		}
+	}
+
+	public int getNumberOfArguments() {
+		return arguments.size();
+	}
+
+	public String getArgument(int index) {
+		return arguments.get(index);
+	}
+
+	public boolean hasOption(String name) {
+		return options.containsKey(name);
+	}
+
+	public String getOption(String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	public int getIntOption(String name, int defaultValue) {
+		String value = options.get(name);
+		if(value == null){
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option -" + name + " expects an integer but got " + value + ".");
+		}
+	}
+
+}
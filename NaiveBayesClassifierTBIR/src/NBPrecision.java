@@ -0,0 +1,45 @@
+
+
+/**
+ * @author andresaan
+ * Precision the log probabilities of a model table are stored with.
+ * Scores are accumulated in double, but the rows of a document are first summed in the representation of the table
+ * (see NBLogProbTable.addRows): in float for FLOAT tables and, with integer counts, as integers for INT16 tables.
+ * NBModel.score and NBModel.scoreClasses sum them the same way, so a class gets the same score from both.
+ */
+public enum NBPrecision {
+
+	//8 bytes per value
+	DOUBLE(8),
+
+	//4 bytes per value, about 7 significant digits
+	FLOAT(4),
+
+	//2 bytes per value, 65536 levels between the minimum and the maximum of each class
+	INT16(2);
+
+	private int bytesPerValue;
+
+	private NBPrecision(int bytesPerValue) {
+		this.bytesPerValue = bytesPerValue;
+	}
+
+	public int getBytesPerValue() {
+		return bytesPerValue;
+	}
+
+	/**
+	 * @param name double, float or int16 (case insensitive)
+	 * @return the precision
+	 * @throws IllegalArgumentException if the name is not a precision
+	 */
+	public static NBPrecision parse(String name) {
+		for(NBPrecision precision : values()){
+			if(precision.name().equalsIgnoreCase(name)){
+				return precision;
+			}
+		}
+		throw new IllegalArgumentException("Unknown precision " + name + ", expected double, float or int16.");
+	}
+
+}
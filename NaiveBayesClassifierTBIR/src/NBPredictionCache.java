@@ -0,0 +1,228 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * @author andresaan
+ * Bounded least recently used cache of predictions, keyed by the parsed document vector, so that documents
+ * repeated in a test file or sent again to the server (resubmissions, members of a patent family) are not scored again.
+ * Two vectors match when they have the same id:count entries in the same order; the hash of the entries only
+ * selects the candidates, every hit is checked entry by entry, so a hit always gives the prediction of an equal vector.
+ * The cached value is the prediction line (the top-k classes, as formatted by NBPredictor).
+ * Looking a vector up does not allocate; a miss copies its entries into the new cache entry.
+ * Safe to use from several threads: the entries are split by hash into segments, each an access ordered map
+ * with its own lock and its share of maxEntries, so that threads looking different vectors up rarely wait for
+ * each other. The eviction is least recently used within a segment, not across the whole cache.
+ */
+public class NBPredictionCache {
+
+	//upper bound on the number of segments, a power of two
+	private static final int MAX_SEGMENTS = 64;
+
+	private int maxEntries;
+
+	private Segment[] segments;
+
+	//reusable key of each thread, to look vectors up without allocating
+	private ThreadLocal<VectorKey> threadKeys = new ThreadLocal<VectorKey>() {
+		protected VectorKey initialValue() {
+			return new VectorKey(64);
+		}
+	};
+
+	private NBCounter hits = NBMetrics.getDefault().counter("predict.cache.hits");
+
+	private NBCounter misses = NBMetrics.getDefault().counter("predict.cache.misses");
+
+	/**
+	 * @param maxEntries number of predictions kept, the least recently used one (of its segment) is evicted beyond
+	 */
+	public NBPredictionCache(int maxEntries) {
+		if(maxEntries < 1){
+			throw new IllegalArgumentException("The cache must hold at least one prediction, got " + maxEntries + ".");
+		}
+		this.maxEntries = maxEntries;
+
+		//a few segments per processor, but no segment smaller than 16 entries
+		int numberOfSegments = 1;
+		while(numberOfSegments < MAX_SEGMENTS && numberOfSegments < 4 * Runtime.getRuntime().availableProcessors()
+				&& maxEntries / (numberOfSegments * 2) >= 16){
+			numberOfSegments = numberOfSegments * 2;
+		}
+		segments = new Segment[numberOfSegments];
+		for(int index = 0; index < numberOfSegments; index++){
+			//the remainder goes to the first segments, so the capacities add up to maxEntries
+			segments[index] = new Segment(maxEntries / numberOfSegments + (index < maxEntries % numberOfSegments ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Least recently used map of one segment, guarded by its own monitor.
+	 */
+	private static class Segment extends LinkedHashMap<VectorKey, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		private int maxEntries;
+
+		Segment(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<VectorKey, String> eldest) {
+			return size() > maxEntries;
+		}
+	}
+
+	private Segment segmentOf(VectorKey key){
+		int h = key.hashCode();
+		//the low bits of the hash also select the bucket inside the segment, use the high ones
+		return segments[(h ^ (h >>> 16)) >>> 8 & (segments.length - 1)];
+	}
+
+	/**
+	 * @param vector
+	 * @return the cached prediction of an equal vector, or null (counted as a miss)
+	 */
+	public String get(NBSparseVector vector) {
+		VectorKey key = threadKeys.get();
+		key.set(vector);
+		Segment segment = segmentOf(key);
+		String prediction;
+		synchronized(segment) {
+			prediction = segment.get(key);
+		}
+		if(prediction != null){
+			hits.increment();
+		}
+		else{
+			misses.increment();
+		}
+		return prediction;
+	}
+
+	/**
+	 * Caches the prediction of the vector, evicting the least recently used prediction of its segment if it is full.
+	 * @param vector
+	 * @param prediction
+	 */
+	public void put(NBSparseVector vector, String prediction) {
+		VectorKey key = new VectorKey(vector.size());
+		key.set(vector);
+		Segment segment = segmentOf(key);
+		synchronized(segment) {
+			segment.put(key, prediction);
+		}
+	}
+
+	/**
+	 * Removes all the predictions (e.g. when the predictions are configured differently).
+	 */
+	public void clear() {
+		for(Segment segment : segments){
+			synchronized(segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public int getNumberOfSegments() {
+		return segments.length;
+	}
+
+	public int size() {
+		int size = 0;
+		for(Segment segment : segments){
+			synchronized(segment) {
+				size = size + segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return hits of the prediction caches of the process (the predict.cache.hits counter)
+	 */
+	public long getHits() {
+		return hits.getCount();
+	}
+
+	/**
+	 * @return misses of the prediction caches of the process (the predict.cache.misses counter)
+	 */
+	public long getMisses() {
+		return misses.getCount();
+	}
+
+	/**
+	 * @return hits, misses and hit ratio of the prediction caches of the process
+	 */
+	public String getReport() {
+		long hitCount = getHits();
+		long lookups = hitCount + getMisses();
+		return String.format("Prediction cache: %d hits, %d misses (%.1f%% hits), %d of %d entries used.",
+				hitCount, lookups - hitCount, lookups == 0 ? 0d : 100d * hitCount / lookups, size(), maxEntries);
+	}
+
+	/**
+	 * Copy of the entries of a vector, with their hash.
+	 */
+	private static class VectorKey {
+
+		private int[] featureIds;
+
+		private long[] countBits;
+
+		private int size;
+
+		private int hash;
+
+		VectorKey(int capacity) {
+			featureIds = new int[capacity];
+			countBits = new long[capacity];
+		}
+
+		void set(NBSparseVector vector) {
+			size = vector.size();
+			if(size > featureIds.length){
+				featureIds = Arrays.copyOf(featureIds, size);
+				countBits = Arrays.copyOf(countBits, size);
+			}
+			int h = size;
+			for(int entry = 0; entry < size; entry++){
+				featureIds[entry] = vector.getFeatureId(entry);
+				countBits[entry] = Double.doubleToLongBits(vector.getCount(entry));
+				h = 31 * h + featureIds[entry];
+				h = 31 * h + (int)(countBits[entry] ^ (countBits[entry] >>> 32));
+			}
+			hash = h;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object object) {
+			if(!(object instanceof VectorKey)){
+				return false;
+			}
+			VectorKey other = (VectorKey)object;
+			if(other.hash != hash || other.size != size){
+				return false;
+			}
+			for(int entry = 0; entry < size; entry++){
+				if(featureIds[entry] != other.featureIds[entry] || countBits[entry] != other.countBits[entry]){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
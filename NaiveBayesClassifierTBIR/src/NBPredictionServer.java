@@ -0,0 +1,420 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * @author andresaan
+ * Long running HTTP server (loopback only) answering predictions with an already loaded NBPredictor.
+ *
+ * POST /predict with one document vector per line in the body (the expected classes may be left out)
+ * returns one line per document with the k most probable classes, in the same order.
+ *
+ * Documents of concurrent requests are queued and gathered into micro batches: a batch is closed
+ * when it reaches maxBatchSize documents or when its first document waited maxWaitMillis,
+ * and is then handed to one thread of the worker pool. The batching spreads the documents over the pool and
+ * saves a hand-off per document; the documents of a batch are still scored one after the other (with the same
+ * buffers, into one shared results buffer), not together.
+ *
+ * At most maxQueuedDocuments documents are admitted (queued or being scored) at a time: a request that does not fit
+ * is answered 503 straight away. A request with more documents than that, or a body of more than maxRequestBytes,
+ * is answered 413 as soon as it is known (from its Content-Length, or while its body is read), so that no
+ * oversized body is held in memory. A request whose documents are not scored within timeoutMillis is answered 503,
+ * as are requests arriving while the server stops.
+ */
+public class NBPredictionServer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private NBPredictor predictor;
+
+	private int maxBatchSize;
+
+	private long maxWaitNanos;
+
+	//request threads only parse the body and wait for their documents
+	private static final int MAX_REQUEST_THREADS = 256;
+
+	private BlockingQueue<PendingDocument> queue = new LinkedBlockingQueue<PendingDocument>();
+
+	//documents that can still be admitted
+	private Semaphore queueSlots;
+
+	private int maxQueuedDocuments;
+
+	private long maxRequestBytes;
+
+	private long timeoutMillis;
+
+	private HttpServer server;
+
+	private ExecutorService workers;
+
+	private ExecutorService requestThreads;
+
+	private Thread batcher;
+
+	//guards running and the queueing of the documents of a request, so none is queued once the batcher may stop
+	private Object admission = new Object();
+
+	private volatile boolean running;
+
+	private NBCounter rejectedCounter = NBMetrics.getDefault().counter("serve.rejected");
+
+	private NBCounter timeoutsCounter = NBMetrics.getDefault().counter("serve.timeouts");
+
+	/**
+	 * @param predictor predictor to use (configure the number of predictions and scores before)
+	 * @param port port to listen to on the loopback interface
+	 * @param numberOfWorkers number of threads scoring batches
+	 * @param maxBatchSize maximum number of documents scored together
+	 * @param maxWaitMillis maximum time a document waits for its batch to fill
+	 * @param maxQueuedDocuments maximum number of documents queued or being scored
+	 * @param timeoutMillis maximum time a request waits for its predictions
+	 * @param maxRequestBytes maximum size of the body of a request
+	 * @throws IOException if the port can not be bound
+	 */
+	public NBPredictionServer(NBPredictor predictor, int port, int numberOfWorkers, int maxBatchSize, long maxWaitMillis,
+			int maxQueuedDocuments, long timeoutMillis, long maxRequestBytes) throws IOException {
+
+		this.predictor = predictor;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+		this.maxQueuedDocuments = Math.max(1, maxQueuedDocuments);
+		this.queueSlots = new Semaphore(this.maxQueuedDocuments);
+		this.timeoutMillis = Math.max(1, timeoutMillis);
+		this.maxRequestBytes = Math.max(1, maxRequestBytes);
+
+		numberOfWorkers = Math.max(1, numberOfWorkers);
+		workers = Executors.newFixedThreadPool(numberOfWorkers);
+
+		//enough request threads to fill the batches of every worker, within a bound
+		requestThreads = Executors.newFixedThreadPool(Math.min(MAX_REQUEST_THREADS, Math.max(16, numberOfWorkers * this.maxBatchSize)));
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/predict", new PredictHandler());
+		server.setExecutor(requestThreads);
+	}
+
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start(){
+		running = true;
+
+		batcher = new Thread(new Runnable() {
+			public void run() {
+				gatherBatches();
+			}
+		}, "nb-batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, lets the queued documents be scored and releases the threads.
+	 */
+	public void stop(){
+		server.stop(1);
+		synchronized(admission) {
+			running = false;
+		}
+		batcher.interrupt();
+		try {
+			batcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+		requestThreads.shutdown();
+	}
+
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * One document waiting for its prediction.
+	 */
+	private static class PendingDocument {
+
+		String line;
+
+		//the prediction is results[resultStart, resultEnd), results stays null if the batch failed
+		StringBuilder results;
+
+		int resultStart;
+
+		int resultEnd;
+
+		RuntimeException error;
+
+		//set when the request stopped waiting, the document is not scored any more
+		volatile boolean cancelled;
+
+		CountDownLatch done;
+
+		PendingDocument(String line, CountDownLatch done){
+			this.line = line;
+			this.done = done;
+		}
+	}
+
+	/**
+	 * Loop of the batcher thread: closes batches by size or time and hands them to the workers.
+	 */
+	private void gatherBatches(){
+
+		while(running || !queue.isEmpty()){
+			try {
+				PendingDocument first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null){
+					continue;
+				}
+
+				List<PendingDocument> batch = new ArrayList<PendingDocument>(maxBatchSize);
+				batch.add(first);
+
+				long deadline = System.nanoTime() + maxWaitNanos;
+				while(batch.size() < maxBatchSize){
+					long remaining = deadline - System.nanoTime();
+					PendingDocument next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if(next == null){
+						break;
+					}
+					batch.add(next);
+				}
+
+				workers.execute(new BatchTask(batch));
+			} catch (InterruptedException e) {
+				//stop was called: keep going until the queue is empty
+				if(running){
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scores the documents of a batch together (see NBPredictor.predictBatch). Every document is answered
+	 * and frees its slot whatever happens, so no request waits for a batch that failed.
+	 */
+	private class BatchTask implements Runnable {
+
+		private List<PendingDocument> batch;
+
+		BatchTask(List<PendingDocument> batch){
+			this.batch = batch;
+		}
+
+		public void run() {
+			try {
+				List<PendingDocument> scored = new ArrayList<PendingDocument>(batch.size());
+				for(PendingDocument document : batch){
+					if(!document.cancelled){
+						scored.add(document);
+					}
+				}
+
+				String[] lines = new String[scored.size()];
+				for(int index = 0; index < lines.length; index++){
+					lines[index] = scored.get(index).line;
+				}
+				StringBuilder results = new StringBuilder(lines.length * 16);
+				int[] resultEnds = new int[lines.length];
+				RuntimeException[] errors = new RuntimeException[lines.length];
+				predictor.predictBatch(lines, lines.length, results, resultEnds, errors);
+
+				for(int index = 0; index < lines.length; index++){
+					PendingDocument document = scored.get(index);
+					document.error = errors[index];
+					document.resultStart = index == 0 ? 0 : resultEnds[index - 1];
+					document.resultEnd = resultEnds[index];
+					document.results = results;
+				}
+			} finally {
+				for(PendingDocument document : batch){
+					document.done.countDown();
+				}
+				queueSlots.release(batch.size());
+			}
+		}
+	}
+
+	private class PredictHandler implements HttpHandler {
+
+		public void handle(HttpExchange exchange) throws IOException {
+
+			try {
+				if(!"POST".equals(exchange.getRequestMethod())){
+					respond(exchange, 405, "Only POST is supported.\n");
+					return;
+				}
+
+				//reject oversized requests before reading them
+				String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+				if(contentLength != null && parseLength(contentLength) > maxRequestBytes){
+					respond(exchange, 413, "A request can hold at most " + maxRequestBytes + " bytes.\n");
+					return;
+				}
+
+				List<String> lines = new ArrayList<String>();
+				String tooLarge = readDocuments(exchange.getRequestBody(), lines);
+				if(tooLarge != null){
+					respond(exchange, 413, tooLarge);
+					return;
+				}
+				//all the documents of the request are admitted, or none
+				if(!queueSlots.tryAcquire(lines.size())){
+					rejectedCounter.increment();
+					respond(exchange, 503, "Too many documents waiting, retry later.\n");
+					return;
+				}
+
+				CountDownLatch done = new CountDownLatch(lines.size());
+				List<PendingDocument> documents = new ArrayList<PendingDocument>(lines.size());
+				for(String documentLine : lines){
+					documents.add(new PendingDocument(documentLine, done));
+				}
+				boolean admitted;
+				synchronized(admission) {
+					admitted = running;
+					if(admitted){
+						queue.addAll(documents);
+					}
+				}
+				if(!admitted){
+					queueSlots.release(lines.size());
+					respond(exchange, 503, "The server is stopping.\n");
+					return;
+				}
+
+				boolean completed;
+				try {
+					completed = done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					completed = false;
+				}
+				if(!completed){
+					for(PendingDocument document : documents){
+						document.cancelled = true;
+					}
+					timeoutsCounter.increment();
+					respond(exchange, 503, "Timed out waiting for the predictions.\n");
+					return;
+				}
+
+				StringBuilder response = new StringBuilder();
+				for(PendingDocument document : documents){
+					if(document.error != null){
+						respond(exchange, 400, "Could not predict \"" + document.line + "\": " + document.error.getMessage() + "\n");
+						return;
+					}
+					if(document.results == null){
+						respond(exchange, 500, "Could not predict \"" + document.line + "\": the scoring of its batch failed.\n");
+						return;
+					}
+					response.append(document.results, document.resultStart, document.resultEnd).append('\n');
+				}
+				respond(exchange, 200, response.toString());
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private long parseLength(String contentLength){
+			try {
+				return Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				//the body is checked while it is read
+				return 0;
+			}
+		}
+
+		/**
+		 * Reads the non blank lines of the body into lines, stopping as soon as the request is known to be too large.
+		 * @return null, or the message answering a request that is too large
+		 */
+		private String readDocuments(InputStream body, List<String> lines) throws IOException {
+
+			byte[] buffer = new byte[8192];
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			long bodyBytes = 0;
+			int read;
+			while((read = body.read(buffer)) != -1){
+				bodyBytes = bodyBytes + read;
+				if(bodyBytes > maxRequestBytes){
+					return "A request can hold at most " + maxRequestBytes + " bytes.\n";
+				}
+
+				//'\n' is never part of a multi byte character, so the lines can be cut in the bytes
+				int lineStart = 0;
+				for(int position = 0; position < read; position++){
+					if(buffer[position] == '\n'){
+						line.write(buffer, lineStart, position - lineStart);
+						if(!addDocument(line, lines)){
+							return "A request can hold at most " + maxQueuedDocuments + " documents.\n";
+						}
+						lineStart = position + 1;
+					}
+				}
+				line.write(buffer, lineStart, read - lineStart);
+			}
+			if(!addDocument(line, lines)){
+				return "A request can hold at most " + maxQueuedDocuments + " documents.\n";
+			}
+			return null;
+		}
+
+		/**
+		 * Adds the line to the documents unless it is blank, and empties it.
+		 * @return false if there are too many documents
+		 */
+		private boolean addDocument(ByteArrayOutputStream line, List<String> lines){
+			String document = new String(line.toByteArray(), UTF8);
+			line.reset();
+			if(document.endsWith("\r")){
+				document = document.substring(0, document.length() - 1);
+			}
+			if(document.trim().length() == 0){
+				return true;
+			}
+			if(lines.size() == maxQueuedDocuments){
+				return false;
+			}
+			lines.add(document);
+			return true;
+		}
+
+		private void respond(HttpExchange exchange, int status, String body) throws IOException {
+			byte[] bytes = body.getBytes(UTF8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(bytes);
+			out.close();
+		}
+	}
+
+}
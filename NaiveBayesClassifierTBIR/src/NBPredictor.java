@@ -1,20 +1,18 @@
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
-import org.aarribas.io.TextFileReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.aarribas.io.ByteLineProcessor;
+import org.aarribas.io.FileChunk;
+import org.aarribas.io.MappedFileReader;
 import org.aarribas.io.TextFileSaver;
+import org.aarribas.io.TextFileSink;
 
 
 /**
@@ -23,23 +21,51 @@ import org.aarribas.io.TextFileSaver;
  */
 public class NBPredictor {
 
-	private NBRawData rawData;
-	
-	double totalCounts;
-	
-	double numberOfDifferentFeatures;
-	
-	private LinkedHashMap<String,Double> totalFeatureCountsPerClass;
+	private NBModel model;
+
+	private NBScorer scorer;
+
+	private TextFileSink resultsSink;
+
+	private int resultsBufferSize = 1 << 20;
+
+	private int flushEveryLines = 0;
+
+	private TextFileSink.SyncPolicy syncPolicy = TextFileSink.SyncPolicy.NONE;
+
+	private NBProgress progress;
+
+	private NBCounter documentsCounter = NBMetrics.getDefault().counter("predict.documents");
+
+	private NBTimer parseTimer = NBMetrics.getDefault().timer("predict.parse");
 
-	LinkedHashMap<Character, Double> sectionProbs;
+	private NBTimer scoreTimer = NBMetrics.getDefault().timer("predict.score");
 
-	LinkedHashMap<String, Double> classProbs;
+	private NBTimer selectTimer = NBMetrics.getDefault().timer("predict.select");
 
-	private List<Map<String, Double>> finalDocumentPredictions;
+	private NBTimer flushTimer = NBMetrics.getDefault().timer("predict.flush");
 
-	private List<String> predictionResults;
+	private NBTimer fileTimer = NBMetrics.getDefault().timer("predict.file");
 
-	private TextFileReader textFileReader = new TextFileReader();
+	private NBTimer batchTimer = NBMetrics.getDefault().timer("predict.batch");
+
+	private int numberOfThreads = 1;
+
+	private int batchBytes = 512 << 10;
+
+	private int numberOfPredictions = 3;
+
+	private boolean saveScores = false;
+
+	//predictions of already seen vectors (null if not caching)
+	private NBPredictionCache cache;
+
+	//buffers of the threads calling predict
+	private ThreadLocal<PredictionBuffers> threadBuffers = new ThreadLocal<PredictionBuffers>() {
+		protected PredictionBuffers initialValue() {
+			return new PredictionBuffers();
+		}
+	};
 
 	private String testsFilename;
 
@@ -50,311 +76,415 @@ public class NBPredictor {
 	 * @param rawData
 	 */
 	public NBPredictor(NBRawData rawData){
-		this.rawData = rawData;
-
-		System.out.println("Computing total counts per class, and overall.");
-		computeTotalCounts();
-
-		System.out.println("Computing log probabilities per class and section.");
-		computeClassAndSectionLogProbabilities();
-
+		this(computeModel(rawData));
+	}
 
+	private static NBModel computeModel(NBRawData rawData){
+		System.out.println("Computing log probabilities per class, section and feature.");
+		return new NBModel(rawData);
 	}
 
 	/**
-	 * Computes absolute total number of counts and total number of different counts.
+	 * Constructor. Expects an already finalized model to base the predictions on
+	 * @param model
 	 */
-	private void computeTotalCounts(){
-
-		LinkedHashMap<String, Integer> classTotalCounts = rawData.getClassTotalCounts(); 
-
-		totalFeatureCountsPerClass = new LinkedHashMap<String,Double>();
+	public NBPredictor(NBModel model){
+		this.model = model;
+		this.scorer = model;
+		NBMetrics.getDefault().setGauge("model.bytes", model.getMemoryFootprint());
+	}
 
-		//compute total counts per class
-		for(String singleClass: classTotalCounts.keySet()){
-			double totalFeatureCountsForOneClass = 0;
-			for(Integer feature: rawData.getFeatureCountTotalsPerClass().get(singleClass).keySet()){
-				
-				totalFeatureCountsForOneClass = totalFeatureCountsForOneClass + (double)rawData.getFeatureCountTotalsPerClass().get(singleClass).get(feature);
-			}
-			
-			totalFeatureCountsPerClass.put(singleClass,totalFeatureCountsForOneClass);
+	public NBModel getModel() {
+		return model;
+	}
 
-		}
-		
-		
-		//compute the complete total counts
-		totalCounts = 0;
-		for(String singleClass: classTotalCounts.keySet()){
-			totalCounts = totalCounts + rawData.getClassTotalCounts().get(singleClass);
-			
-		}
-		
-		Set<Integer> featureIds  = new HashSet<Integer>();
-		for(String sClass: classTotalCounts.keySet()){
-		
-			featureIds.addAll(rawData.getFeatureCountTotalsPerClass().get(sClass).keySet());
-		}
-		numberOfDifferentFeatures = featureIds.size();
+	/**
+	 * Sets the scorer of the class log probabilities (the exact scoring of the model by default),
+	 * e.g. an NBHierarchicalScorer over the same model.
+	 * @param scorer
+	 */
+	public void setScorer(NBScorer scorer) {
+		this.scorer = scorer;
+		clearCache();
 	}
 
 	/**
-	 * Pre-computes the log probabilities per section and per class.  
+	 * Sets the number of threads used to score the test documents (1 by default).
+	 * The results file keeps the order of the test file whatever the number of threads.
+	 * @param numberOfThreads
 	 */
-	private void computeClassAndSectionLogProbabilities(){
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
 
-		//save the log probability per class
-		LinkedHashMap<String, Integer> classTotalCounts = rawData.getClassTotalCounts();
-		classProbs = new LinkedHashMap<String, Double>();
+	/**
+	 * Sets the number of bytes of whole lines scored together by one thread when predicting in parallel.
+	 * @param batchBytes
+	 */
+	public void setBatchBytes(int batchBytes) {
+		this.batchBytes = Math.max(1, batchBytes);
+	}
 
-		for(String singleClass: classTotalCounts.keySet()){
+	/**
+	 * Sets the number of classes predicted per document (3 by default).
+	 * @param numberOfPredictions
+	 */
+	public void setNumberOfPredictions(int numberOfPredictions) {
+		this.numberOfPredictions = Math.max(1, numberOfPredictions);
+		clearCache();
+	}
 
-			//the class probability is only computed given a section (the section of the class)
-			double probability =  (double)classTotalCounts.get(singleClass)
-					/(double)rawData.getSectionTotalCounts().get(singleClass.charAt(0));
-			classProbs.put(singleClass, Math.log(probability)); 
-		}
+	/**
+	 * When set, each predicted class is saved as class:logProbability instead of just the class.
+	 * @param saveScores
+	 */
+	public void setSaveScores(boolean saveScores) {
+		this.saveScores = saveScores;
+		clearCache();
+	}
 
+	/**
+	 * Caches the predictions of the last maxEntries different vectors, so that repeated documents are not scored again
+	 * (0, the default, does not cache). The cache is kept from one predictAndSave to the next, and shared by the threads.
+	 * @param maxEntries
+	 */
+	public void setCacheSize(int maxEntries) {
+		this.cache = maxEntries > 0 ? new NBPredictionCache(maxEntries) : null;
+	}
 
-		//save the probability per section
-		LinkedHashMap<Character, Integer> sectionTotalCounts = rawData.getSectionTotalCounts(); 
-		sectionProbs = new LinkedHashMap<Character, Double>();
-		
-		//first compute the total number of observations
-		Double Total = 0d;
-		for(Character singleSection: sectionTotalCounts.keySet()){
+	/**
+	 * @return the prediction cache, or null if the predictions are not cached
+	 */
+	public NBPredictionCache getCache() {
+		return cache;
+	}
 
-			Total = Total + sectionTotalCounts.get(singleSection);
+	//cached predictions depend on the scorer, the number of predictions and the scores
+	private void clearCache(){
+		if(cache != null){
+			cache.clear();
 		}
+	}
 
-		//save the probability per section as the number of times we observed the section/number of observations
-		for(Character singleSection: sectionTotalCounts.keySet()){
-			double probability = (double)sectionTotalCounts.get(singleSection)/Total;
-			sectionProbs.put(singleSection, Math.log(probability)); 
+	/**
+	 * Sets the size in bytes of the buffer of the results file (1MB by default).
+	 * @param resultsBufferSize
+	 */
+	public void setResultsBufferSize(int resultsBufferSize) {
+		this.resultsBufferSize = resultsBufferSize;
+	}
 
-		}
+	/**
+	 * Writes the buffered results to the results file every flushEveryLines lines,
+	 * so that they can be followed while predicting (0, the default, only writes full buffers).
+	 * @param flushEveryLines
+	 */
+	public void setFlushEveryLines(int flushEveryLines) {
+		this.flushEveryLines = Math.max(0, flushEveryLines);
+	}
 
+	/**
+	 * Sets when the results are forced to the disk (not forced by default).
+	 * @param syncPolicy
+	 */
+	public void setSyncPolicy(TextFileSink.SyncPolicy syncPolicy) {
+		this.syncPolicy = syncPolicy;
 	}
 
 	/**
 	 * Runs the prediction for each document vector in the test file and saves the prediction to the results file.
+	 * The test file is streamed: each line (or batch of lines when several threads are used)
+	 * is scored and its prediction written before the rest of the file is read.
+	 * If the process is stopped before the end, the results predicted so far are still written (whole lines only).
 	 * @param testsFilename
 	 * @param resultsFilename
 	 */
 	public void predictAndSave(String testsFilename, String resultsFilename){
 
-		//prepare structures to save the predictions per document
-		finalDocumentPredictions = new ArrayList<Map<String, Double>>();
-
 		//save filenames
 		this.testsFilename = testsFilename;
 		this.resultsFilename = resultsFilename;
 
-		deleteResultsFile();
+		//the results file is replaced, and kept open for the whole run
+		try {
+			resultsSink = new TextFileSink(resultsFilename, TextFileSaver.SaveMode.NEW, resultsBufferSize, flushEveryLines, syncPolicy);
+		} catch (IOException e) {
+			System.err.println("Could not write to file:" + resultsFilename);
+			System.exit(1);
+		}
 
-		readTestFile();
+		//do not lose the buffered results if the process is stopped
+		Thread closeOnShutdown = new Thread("nb-results-close") {
+			public void run() {
+				closeResults();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(closeOnShutdown);
 
 		//compute the final probabilities
 		System.out.println("Computing probabilities per class per text file entry vectors.");
-		calculateFinalPredictionsAndSave();
-	}
-
-	private void deleteResultsFile(){
-		File file = new File(resultsFilename);
-		file.delete();
-		System.out.println("Old results file has been deleted");
-	}
-
-	private void readTestFile(){
-		//read the test file content
-		System.out.println("Reading test file.");
+		long start = System.nanoTime();
+		progress = new NBProgress("Predicted", "lines", 5000);
 		try {
-			textFileReader.readTextFile(testsFilename);
-		} catch (FileNotFoundException e) {
+			if(numberOfThreads == 1){
+				predictSequentially();
+			}
+			else{
+				predictInParallel();
+			}
+		} catch (IOException e) {
 			System.err.println("Could not load the file with the counts.");
 			System.exit(1);
 		}
-	}
 
-	/**
-	 * Saves a 3 class prediction per document to the results file.
-	 *
-	 */
-	private void savePredictions(){
-		//sort the predictions in descending order so that the final 3 predictions are the most probable ones
-		System.out.println("Sorting predictions.");
-		sortFinalDocumentPredictions();
-
-		//populate prediction results
-		System.out.println("Generating results (3 predicted classes per entry vector).");
-		populatePredictionResults();
-
-		//save it with TextFileSaver
-		System.out.println("Saving results to file.");
-		TextFileSaver saver = new TextFileSaver();
+		long flushStart = System.nanoTime();
+		closeResults();
+		try {
+			Runtime.getRuntime().removeShutdownHook(closeOnShutdown);
+		} catch (IllegalStateException e) {
+			//already shutting down, the hook closes nothing more
+		}
+		flushTimer.recordSince(flushStart);
+		fileTimer.recordSince(start);
+		progress.finish();
+		if(cache != null){
+			System.out.println(cache.getReport());
+		}
+	}
 
+	private void closeResults(){
 		try {
-			saver.saveTextFile(resultsFilename, predictionResults, TextFileSaver.SaveMode.APPEND);
+			resultsSink.close();
 		} catch (IOException e) {
-			System.err.println("Could not write to file:" + resultsFilename);
+			System.err.println("Could not write to file:" + this.resultsFilename);
 			e.printStackTrace();
 		}
-
 	}
 
-	/**
-	 * Sorts a set of predictions (class and computed probability) in ascending order
-	 */
-	private void sortFinalDocumentPredictions(){
-		//sort each map in ascending order
-		for(int documentIndex = 0; documentIndex < finalDocumentPredictions.size(); documentIndex++){
-			finalDocumentPredictions.set(documentIndex, sortByComparator(finalDocumentPredictions.get(documentIndex)));
-		}
-	}
+	private void predictSequentially() throws IOException {
 
-	private void populatePredictionResults(){
-		//always created from scratch
-		predictionResults = new LinkedList<String>();
-		
-		//for all predictions per doc save the three most probable classes
-		for(int documentIndex = 0; documentIndex < finalDocumentPredictions.size(); documentIndex++){
-			List<String> classes = new ArrayList<String>(finalDocumentPredictions.get(documentIndex).keySet());
-			predictionResults.add(new String(classes.get(classes.size()-1) + " " + classes.get(classes.size()-2) + " " + classes.get(classes.size()-3)));
-		}
-	}
+		//reused from one document to the next
+		final PredictionBuffers buffers = new PredictionBuffers();
 
-	public List<String> getPredictionResults() {
-		return predictionResults;
+		new MappedFileReader(testsFilename).processFile(new ByteLineProcessor() {
+			public void processLine(ByteBuffer buffer, int lineStart, int lineEnd) {
+				predictLine(buffer, lineStart, lineEnd, buffers);
+				try {
+					resultsSink.writeLine(buffers.resultLine);
+				} catch (IOException e) {
+					throw new IllegalStateException("Could not write to file:" + resultsFilename, e);
+				}
+				progress.add(1);
+			}
+		});
 	}
 
-	public void setPredictionResults(List<String> predictionResults) {
-		this.predictionResults = predictionResults;
-	}
+	/**
+	 * Predictions of a batch of lines, one per line with its terminator.
+	 */
+	private static class BatchResults {
 
+		StringBuilder lines = new StringBuilder();
 
-	public List<Map<String,Double>> getFinalPredictions(){
-		return finalDocumentPredictions;
+		int numberOfLines;
 	}
 
 	/**
-	 * This method will process each line in the test file
-	 * It decomposes the line into expected class and the vector counts
-	 * Then based on the counts, will compute the probability for a given class given the observation.
-	 * The section prediction is used, as the class prediction implies a section assumption.
-	 * P(A|W) = Prod(P(Wi|C)) * P(C|S) * P(S) / P(W)
-	 * P(W) is the same for all classes hence, we can ignore it when applying Naive Bayes.
+	 * Scores batches of lines on a fixed pool of threads, parsing them straight from the mapped file.
+	 * The batches are cut by size, so the file is not scanned before the threads start, and written in file order, and at most two batches per thread are kept in memory.
 	 */
-	private void calculateFinalPredictionsAndSave(){
-		
-		//process each line of the text file
-		for(int lineIndex = 0; lineIndex < textFileReader.getTextFileLines().size(); lineIndex++){
+	private void predictInParallel() throws IOException {
+
+		List<FileChunk> batches = new MappedFileReader(testsFilename).splitByBytes(batchBytes);
 
-			//every 1000 lines we save the results so far to the results file
-			if(lineIndex !=0 && lineIndex % 1000 == 0){	
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		LinkedList<Future<BatchResults>> pendingBatches = new LinkedList<Future<BatchResults>>();
+		try {
+			for(final FileChunk batch : batches){
+				pendingBatches.add(executor.submit(new Callable<BatchResults>() {
+					public BatchResults call() {
+						final PredictionBuffers buffers = threadBuffers.get();
+						final BatchResults results = new BatchResults();
+						batch.processLines(new ByteLineProcessor() {
+							public void processLine(ByteBuffer buffer, int lineStart, int lineEnd) {
+								predictLine(buffer, lineStart, lineEnd, buffers);
+								results.lines.append(buffers.resultLine).append('\n');
+								results.numberOfLines++;
+							}
+						});
+						return results;
+					}
+				}));
+
+				//bound the memory used by waiting for the oldest batch
+				while(pendingBatches.size() > 2 * numberOfThreads){
+					saveBatch(pendingBatches.removeFirst());
+				}
+			}
+			while(!pendingBatches.isEmpty()){
+				saveBatch(pendingBatches.removeFirst());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-				System.out.println("--> Saving results so far:");
+	private void saveBatch(Future<BatchResults> pendingBatch) throws IOException {
+		BatchResults results;
+		try {
+			results = pendingBatch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for predictions.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Prediction of a batch of lines failed.", e.getCause());
+		}
 
-				//save predictions so far
-				savePredictions();
+		resultsSink.writeLines(results.lines, results.numberOfLines);
 
-				//clean up old finalDocumentPredictions (saves memory)
-				finalDocumentPredictions = new ArrayList<Map<String, Double>>();
-			}
+		//inform of the status, at most every few seconds
+		progress.add(results.numberOfLines);
+	}
 
-			//get the line
-			String line = textFileReader.getTextFileLines().get(lineIndex);
-			
-			//inform of the status
-			System.out.println("Predicting line " + lineIndex + " of " + (textFileReader.getTextFileLines().size()-1) );
+	/**
+	 * Predicts the classes of a single document vector. Can be called from several threads at once;
+	 * the predictor must be configured (number of predictions, scores) before the first call.
+	 * @param line document vector, with or without the expected classes in front
+	 * @return the k most probable classes (most probable first) separated by blank space
+	 */
+	public String predict(String line){
+		PredictionBuffers buffers = threadBuffers.get();
+		predictLine(line, buffers);
+		return buffers.resultLine.toString();
+	}
 
-			//prepare to store the predictions per class for this documentVector
-			Map <String,Double> predictions = new  LinkedHashMap<String, Double>();
+	/**
+	 * Predicts the classes of a batch of document vectors on the calling thread, with the same buffers for all of them,
+	 * appending the predictions one after the other (without separator) to the same results.
+	 * A line that can not be parsed does not stop the batch: its error is kept and its prediction is left empty.
+	 * Can be called from several threads at once, with their own results.
+	 * @param lines document vectors, with or without the expected classes in front
+	 * @param numberOfLines number of valid entries in lines
+	 * @param results output, the predictions are appended
+	 * @param resultEnds output, length of results after the prediction of each line
+	 * @param errors output, the error of each line, or null
+	 */
+	public void predictBatch(String[] lines, int numberOfLines, StringBuilder results, int[] resultEnds, RuntimeException[] errors){
+
+		long start = System.nanoTime();
+		PredictionBuffers buffers = threadBuffers.get();
+		for(int index = 0; index < numberOfLines; index++){
+			errors[index] = null;
+			try {
+				predictLine(lines[index], buffers);
+				results.append(buffers.resultLine);
+			} catch (RuntimeException e) {
+				errors[index] = e;
+			}
+			resultEnds[index] = results.length();
+		}
+		batchTimer.recordSince(start);
+	}
 
-			String[] vectorEntries = line.split(" ");
+	/**
+	 * Buffers reused from one document to the next by one thread.
+	 */
+	private class PredictionBuffers {
 
-			//remove first element which is precisely the class to predict
-			vectorEntries = Arrays.copyOfRange(vectorEntries, 1, vectorEntries.length);
+		NBSparseVector vector = new NBSparseVector();
 
-			for(String singleClass: classProbs.keySet()){
+		double[] scores = new double[model.getNumberOfClasses()];
 
-				//get class prediction (log probability) per vector entry assuming it is the right one (given a section)
-				double classPredict = classProbs.get(singleClass) + calculateLogProbGivenClassAndVector(singleClass, vectorEntries);
+		NBTopK topK = new NBTopK(numberOfPredictions);
 
-				//class prediction must of course be corrected with the section prediction
-				classPredict  =  sectionProbs.get(singleClass.charAt(0)) + classPredict;
+		StringBuilder resultLine = new StringBuilder();
 
-				//save the log probability 
-				predictions.put(singleClass, classPredict);
+		NBVectorParser parser = new NBVectorParser();
 
+		//fills vector with the features of the document, the expected classes are not needed
+		NBVectorHandler vectorFiller = new NBVectorHandler() {
+			public void classLabel(CharSequence text, int start, int end) {
 			}
-			finalDocumentPredictions.add(predictions);	
-		}
-
-		//save final predictions
-		savePredictions();
 
+			public void feature(int featureId, double count) {
+				vector.add(featureId, count);
+			}
+		};
 	}
 
 	/**
-	 *  Compute given the observed vectorEntries/count and a given class, the probabiblity for that class.
-	 * @param singleClass
-	 * @param vectorEntries
-	 * @return
+	 * This method will process one line of the test file and return the k class prediction for it.
+	 * It decomposes the line into expected class and the vector counts, parsing the vector only once.
+	 * Then based on the counts, the model computes the probability of every class given the observation.
+	 * This method only reads the model, so it can be called from several threads with their own buffers.
+	 * @param line document vector (expected classes followed by id:count entries)
+	 * @param buffers buffers of the calling thread, the prediction is left in their resultLine:
+	 * the k most probable classes (most probable first) separated by blank space
 	 */
-	private double calculateLogProbGivenClassAndVector(String singleClass, String[] vectorEntries){
-
-		double prob = 0d;
-
-		for(String vectorEntry : vectorEntries){
-
-			String[] featureEntry = vectorEntry.split(":");		
-			
-			
-			if(rawData.getFeatureCountTotalsPerClass().get(singleClass).get(Integer.valueOf(featureEntry[0])) != null){
-				//if the given feature was observed at training time for this class
-				//we take the multinomial approach
-		
-				double v = Double.valueOf(featureEntry[1]);
-				double temp = rawData.getFeatureCountTotalsPerClass().get(singleClass).get(Integer.valueOf(featureEntry[0]))+1d;
-				double total = totalFeatureCountsPerClass.get(singleClass) + rawData.getFeatureCountTotalsPerClass().get(singleClass).keySet().size();
-				
-				prob = prob + Math.log((double)temp/(total))*v;
-			}
-			else{
-				
-				//if feature was not observed for the current class: consider a constant probability 
-				//of observing a previously non-observed feature
-				
-				double v = Double.valueOf(featureEntry[1]);
-				prob = prob + Math.log(1d/(totalCounts + numberOfDifferentFeatures))*v;
-				
-			}
-		}
+	private void predictLine(String line, PredictionBuffers buffers){
 
-		return prob;
+		long start = System.nanoTime();
+		buffers.vector.clear();
+		buffers.parser.parse(line, buffers.vectorFiller);
+		parseTimer.recordSince(start);
 
+		predictVector(buffers);
 	}
-	
 
-	private static Map sortByComparator(Map unsortMap) {
+	/**
+	 * Same as predictLine for a line held in bytes (e.g. a slice of the memory mapped test file).
+	 */
+	private void predictLine(ByteBuffer buffer, int lineStart, int lineEnd, PredictionBuffers buffers){
+
+		long start = System.nanoTime();
+		buffers.vector.clear();
+		buffers.parser.parse(buffer, lineStart, lineEnd, buffers.vectorFiller);
+		parseTimer.recordSince(start);
 
-		List list = new LinkedList(unsortMap.entrySet());
+		predictVector(buffers);
+	}
 
-		// sort list based on comparator
-		Collections.sort(list, new Comparator() {
-			public int compare(Object o1, Object o2) {
-				return ((Comparable) ((Map.Entry) (o1)).getValue())
-						.compareTo(((Map.Entry) (o2)).getValue());
+	/**
+	 * Scores the vector parsed into the buffers and leaves the k class prediction for it in their resultLine.
+	 */
+	private void predictVector(PredictionBuffers buffers){
+
+		StringBuilder resultLine = buffers.resultLine;
+		if(cache != null){
+			String cachedPrediction = cache.get(buffers.vector);
+			if(cachedPrediction != null){
+				resultLine.setLength(0);
+				resultLine.append(cachedPrediction);
+				documentsCounter.increment();
+				return;
 			}
-		});
+		}
 
+		long parsed = System.nanoTime();
+		scorer.score(buffers.vector, buffers.scores);
+		long scored = System.nanoTime();
+		scoreTimer.record(scored - parsed);
+
+		//keep only the k most probable classes
+		NBTopK topK = buffers.topK;
+		topK.select(buffers.scores, model.getNumberOfClasses());
+		selectTimer.recordSince(scored);
+		documentsCounter.increment();
+
+		resultLine.setLength(0);
+		for(int rank = 0; rank < topK.size(); rank++){
+			if(rank != 0){
+				resultLine.append(' ');
+			}
+			resultLine.append(model.getClassName(topK.getClassId(rank)));
+			if(saveScores){
+				resultLine.append(':').append(topK.getScore(rank));
+			}
+		}
 
-		Map sortedMap = new LinkedHashMap();
-		for (Iterator it = list.iterator(); it.hasNext();) {
-			Map.Entry entry = (Map.Entry) it.next();
-			sortedMap.put(entry.getKey(), entry.getValue());
+		if(cache != null){
+			cache.put(buffers.vector, resultLine.toString());
 		}
-		return sortedMap;
 	}
 
 }
@@ -0,0 +1,68 @@
+
+
+/**
+ * @author andresaan
+ * Rate limited progress messages: at most one message per interval however fast the items are processed,
+ * and a summary with the throughput when the work is finished.
+ * Meant to be updated by a single thread (the one reading or writing the file).
+ */
+public class NBProgress {
+
+	private String action;
+
+	private String unit;
+
+	private long intervalNanos;
+
+	private long startNanos = System.nanoTime();
+
+	private long lastReportNanos = startNanos;
+
+	private long count;
+
+	/**
+	 * @param action past participle shown in the messages (e.g. "Predicted")
+	 * @param unit what the items are (e.g. "lines")
+	 * @param intervalMillis minimum time between two messages
+	 */
+	public NBProgress(String action, String unit, long intervalMillis) {
+		this.action = action;
+		this.unit = unit;
+		this.intervalNanos = intervalMillis * 1000000L;
+	}
+
+	/**
+	 * @param items number of items just processed
+	 */
+	public void add(long items) {
+
+		count = count + items;
+
+		//reading the clock every 256 items keeps the check out of the profile
+		if((count & 255) < items || items >= 256){
+			long now = System.nanoTime();
+			if(now - lastReportNanos >= intervalNanos){
+				lastReportNanos = now;
+				System.out.println(action + " " + count + " " + unit + " (" + Math.round(rate(now)) + " " + unit + "/s).");
+			}
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Prints the final count and the mean throughput.
+	 */
+	public void finish() {
+		long now = System.nanoTime();
+		System.out.println(action + " " + count + " " + unit + " in " + String.format("%.2f", (now - startNanos) / 1e9)
+				+ " s (" + Math.round(rate(now)) + " " + unit + "/s).");
+	}
+
+	private double rate(long now) {
+		return count * 1e9 / Math.max(1, now - startNanos);
+	}
+
+}
@@ -0,0 +1,221 @@
+
+
+/**
+ * @author andresaan
+ * NBLogProbTable kept on the heap as 16 bit fixed point values, row after row:
+ * a quarter of the memory (and memory bandwidth when scoring) of NBArrayLogProbTable.
+ * Each column (class) has its own scale, so its values are spread over the 65536 levels
+ * between its minimum and its maximum: value = base[column] + quantized * scale[column].
+ */
+public class NBQuantizedLogProbTable implements NBLogProbTable {
+
+	private short[] values;
+
+	private double[] bases;
+
+	private double[] scales;
+
+	private int numberOfRows;
+
+	private int numberOfColumns;
+
+	//per thread integer accumulators of addRows
+	private ThreadLocal<int[]> threadSums = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[numberOfColumns];
+		}
+	};
+
+	/**
+	 * @param values numberOfRows * numberOfColumns quantized values, row after row
+	 * @param bases per column, value represented by the quantized value 0
+	 * @param scales per column, difference between the values represented by two consecutive quantized values
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 */
+	public NBQuantizedLogProbTable(short[] values, double[] bases, double[] scales, int numberOfRows, int numberOfColumns) {
+		this.values = values;
+		this.bases = bases;
+		this.scales = scales;
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+	}
+
+	/**
+	 * Quantizes every value of the table to the nearest level of its column.
+	 * @param table
+	 * @return the quantized table
+	 */
+	public static NBQuantizedLogProbTable of(NBLogProbTable table) {
+
+		int numberOfRows = table.getNumberOfRows();
+		int numberOfColumns = table.getNumberOfColumns();
+
+		double[] minimums = new double[numberOfColumns];
+		double[] maximums = new double[numberOfColumns];
+		for(int column = 0; column < numberOfColumns; column++){
+			minimums[column] = Double.POSITIVE_INFINITY;
+			maximums[column] = Double.NEGATIVE_INFINITY;
+		}
+		for(int row = 0; row < numberOfRows; row++){
+			for(int column = 0; column < numberOfColumns; column++){
+				double value = table.get(row, column);
+				minimums[column] = Math.min(minimums[column], value);
+				maximums[column] = Math.max(maximums[column], value);
+			}
+		}
+
+		//the minimum maps to Short.MIN_VALUE and the maximum to Short.MAX_VALUE
+		double[] scales = new double[numberOfColumns];
+		double[] bases = new double[numberOfColumns];
+		for(int column = 0; column < numberOfColumns; column++){
+			double range = maximums[column] - minimums[column];
+			scales[column] = range > 0 ? range / 65535d : 1d;
+			bases[column] = numberOfRows == 0 ? 0d : minimums[column] - Short.MIN_VALUE * scales[column];
+		}
+
+		short[] values = new short[numberOfRows * numberOfColumns];
+		for(int row = 0; row < numberOfRows; row++){
+			for(int column = 0; column < numberOfColumns; column++){
+				long level = Math.round((table.get(row, column) - bases[column]) / scales[column]);
+				values[row * numberOfColumns + column] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, level));
+			}
+		}
+
+		return new NBQuantizedLogProbTable(values, bases, scales, numberOfRows, numberOfColumns);
+	}
+
+	public NBPrecision getPrecision() {
+		return NBPrecision.INT16;
+	}
+
+	public double getBase(int column) {
+		return bases[column];
+	}
+
+	public double getScale(int column) {
+		return scales[column];
+	}
+
+	/**
+	 * @return the quantized value stored for the row and column
+	 */
+	public short getQuantized(int row, int column) {
+		return values[row * numberOfColumns + column];
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	public double get(int row, int column) {
+		return bases[column] + values[row * numberOfColumns + column] * scales[column];
+	}
+
+	public void addRow(int row, double weight, double[] accumulators) {
+		addRow(row, weight, accumulators, 0, numberOfColumns);
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int fromColumn, int toColumn) {
+		int offset = row * numberOfColumns;
+		for(int column = fromColumn; column < toColumn; column++){
+			accumulators[column] = accumulators[column] + (bases[column] + values[offset + column] * scales[column])*weight;
+		}
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+		int offset = row * numberOfColumns;
+		for(int index = 0; index < numberOfSelectedColumns; index++){
+			int column = columns[index];
+			accumulators[column] = accumulators[column] + (bases[column] + values[offset + column] * scales[column])*weight;
+		}
+	}
+
+	/**
+	 * With integer weights the quantized values are summed as integers (a loop the JIT vectorizes)
+	 * and converted once per column: base * sum(weights) + scale * sum(quantized * weight).
+	 * Fractional weights, or weights large enough to overflow, fall back to addRow.
+	 */
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators) {
+		addRows(rows, weights, numberOfGivenRows, accumulators, 0, numberOfColumns);
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int fromColumn, int toColumn) {
+
+		double totalWeight = getIntegerTotalWeight(weights, numberOfGivenRows);
+		if(totalWeight >= 65536){
+			for(int index = 0; index < numberOfGivenRows; index++){
+				addRow(rows[index], weights[index], accumulators, fromColumn, toColumn);
+			}
+			return;
+		}
+
+		int[] sums = threadSums.get();
+		for(int column = fromColumn; column < toColumn; column++){
+			sums[column] = 0;
+		}
+
+		for(int index = 0; index < numberOfGivenRows; index++){
+			int offset = rows[index] * numberOfColumns;
+			int weight = (int)weights[index];
+			for(int column = fromColumn; column < toColumn; column++){
+				sums[column] = sums[column] + values[offset + column]*weight;
+			}
+		}
+
+		for(int column = fromColumn; column < toColumn; column++){
+			accumulators[column] = accumulators[column] + (bases[column]*totalWeight + sums[column]*scales[column]);
+		}
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+
+		double totalWeight = getIntegerTotalWeight(weights, numberOfGivenRows);
+		if(totalWeight >= 65536){
+			for(int index = 0; index < numberOfGivenRows; index++){
+				addRow(rows[index], weights[index], accumulators, columns, numberOfSelectedColumns);
+			}
+			return;
+		}
+
+		int[] sums = threadSums.get();
+		for(int index = 0; index < numberOfSelectedColumns; index++){
+			sums[columns[index]] = 0;
+		}
+
+		for(int rowIndex = 0; rowIndex < numberOfGivenRows; rowIndex++){
+			int offset = rows[rowIndex] * numberOfColumns;
+			int weight = (int)weights[rowIndex];
+			for(int index = 0; index < numberOfSelectedColumns; index++){
+				int column = columns[index];
+				sums[column] = sums[column] + values[offset + column]*weight;
+			}
+		}
+
+		for(int index = 0; index < numberOfSelectedColumns; index++){
+			int column = columns[index];
+			accumulators[column] = accumulators[column] + (bases[column]*totalWeight + sums[column]*scales[column]);
+		}
+	}
+
+	/**
+	 * |quantized| <= 32768, so the integer sums of addRows fit an int while the total weight stays below 65536.
+	 * @return the total of the weights, or infinity if any weight is fractional or negative
+	 */
+	private static double getIntegerTotalWeight(double[] weights, int numberOfGivenRows) {
+		double totalWeight = 0;
+		for(int index = 0; index < numberOfGivenRows; index++){
+			double weight = weights[index];
+			if(weight != (int)weight || weight < 0){
+				return Double.POSITIVE_INFINITY;
+			}
+			totalWeight = totalWeight + weight;
+		}
+		return totalWeight;
+	}
+
+}
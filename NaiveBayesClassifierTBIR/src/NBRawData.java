@@ -1,125 +1,395 @@
-import java.util.LinkedHashMap;
-import java.util.Set;
+import java.util.Arrays;
 
 
 
 /**
  * @author andresaan
  *	This class stores the counts per class
- *	and the total class and section counts
+ *	and the total class and section counts.
+ *	Classes and sections are given dense ids (in order of appearance, see NBLabelDictionary) and
+ *	features are mapped to dense slots, so that all counts are kept in primitive arrays.
  */
 public class NBRawData {
 
-	private LinkedHashMap<String,LinkedHashMap<Integer, Integer>> featureCountTotalsPerClass;
+	//class and section ids
+	private NBLabelDictionary labels;
 
-	private LinkedHashMap<String, Integer> classTotalCounts;
+	private int[] classTotalCounts;
 
-	private LinkedHashMap<Character, Integer> sectionTotalCounts;
+	private int[] sectionTotalCounts;
+
+	//feature id -> feature slot, and back
+	private NBIntIntMap featureSlots;
+
+	private int[] featureIds;
+
+	//per feature slot: number of documents the feature was observed in
+	private int[] featureDocumentCounts;
+
+	//per feature slot: number of the last document that counted it, so a document counts a feature once
+	private int[] featureLastDocuments;
+
+	//number of the document being counted (see startDocument)
+	private int currentDocument;
+
+	//per class: feature slot -> accumulated count, kept in storage
+	private NBCountMap[] featureCountsPerClass;
+
+	private NBStorage storage;
+
+	//per class: sum of all the feature counts
+	private long[] featureCountTotalsPerClass;
+
+	//per class: whether its counts changed since the last call to resetChangedClasses
+	private boolean[] changedClasses;
 
 	public NBRawData() {
-		featureCountTotalsPerClass = new LinkedHashMap<String,LinkedHashMap<Integer, Integer>>() ;
+		this(NBStorage.heap());
+	}
+
+	/**
+	 * @param storage where the counts per class are kept
+	 */
+	public NBRawData(NBStorage storage) {
+		this.storage = storage;
+		labels = new NBLabelDictionary();
+
+		classTotalCounts = new int[16];
+		sectionTotalCounts = new int[16];
 
-		classTotalCounts = new LinkedHashMap<String, Integer>();
+		featureSlots = new NBIntIntMap(1 << 12);
+		featureIds = new int[1 << 12];
+		featureDocumentCounts = new int[1 << 12];
+		featureLastDocuments = new int[1 << 12];
 
-		sectionTotalCounts = new LinkedHashMap<Character, Integer>();
+		featureCountsPerClass = new NBCountMap[16];
+		featureCountTotalsPerClass = new long[16];
+		changedClasses = new boolean[16];
 	}
 
+	/**
+	 * Returns the id of the class, registering the class (and its section) if it was never seen.
+	 * The section of a class is the first character of its name.
+	 * @param className
+	 * @return dense class id
+	 */
+	public int addClass(String className){
+		return addClass(className, 0, className.length());
+	}
 
 	/**
-	 * Adds a count per class that a document belongs to.
-	 * @param classes Array of classes that a document belongs to..
+	 * Same as addClass(String) for the characters text[start, end), without allocating if the class is known
+	 * (e.g. for a label in the middle of a parsed line).
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return dense class id
 	 */
-	public void addClassesCounts(String[] classes){
+	public int addClass(CharSequence text, int start, int end){
 
-		for(String singleClass : classes){
+		int classId = labels.getId(text, start, end);
+		if(classId >= 0){
+			return classId;
+		}
 
-			//if there is no entry at feature count level for this class add an empty entry
-			if(featureCountTotalsPerClass.get(singleClass) == null){
-				featureCountTotalsPerClass.put(singleClass, new LinkedHashMap<Integer, Integer>());
-			}
+		int newId = labels.add(text, start, end);
+		if(newId == classTotalCounts.length){
+			int capacity = newId << 1;
+			classTotalCounts = Arrays.copyOf(classTotalCounts, capacity);
+			featureCountsPerClass = Arrays.copyOf(featureCountsPerClass, capacity);
+			featureCountTotalsPerClass = Arrays.copyOf(featureCountTotalsPerClass, capacity);
+			changedClasses = Arrays.copyOf(changedClasses, capacity);
+		}
 
-			//same for the class counts (initialise to 1)
-			if(classTotalCounts.get(singleClass) == null){
-				classTotalCounts.put(singleClass, 1);
-			}
-			else{
-				//just add the count
-				classTotalCounts.put(singleClass, classTotalCounts.get(singleClass) + 1);
-			}
+		ensureSectionCapacity(labels.getNumberOfSections());
+		featureCountsPerClass[newId] = storage.newCountMap();
+		changedClasses[newId] = true;
 
+		return newId;
+	}
+
+	/**
+	 * Returns the id of the section, registering it if it was never seen.
+	 */
+	int addSection(char section){
+
+		int sectionId = labels.addSection(section);
+		ensureSectionCapacity(labels.getNumberOfSections());
+		return sectionId;
+	}
+
+	private void ensureSectionCapacity(int numberOfSections){
+		if(numberOfSections > sectionTotalCounts.length){
+			sectionTotalCounts = Arrays.copyOf(sectionTotalCounts, Math.max(numberOfSections, sectionTotalCounts.length << 1));
+		}
+	}
+
+	/**
+	 * Adds a count per class that a document belongs to.
+	 * @param classes ids of the classes that a document belongs to
+	 * @param numberOfClasses number of valid entries in classes
+	 */
+	public void addClassesCounts(int[] classes, int numberOfClasses){
+
+		for(int classIndex = 0; classIndex < numberOfClasses; classIndex++){
+			classTotalCounts[classes[classIndex]]++;
+			changedClasses[classes[classIndex]] = true;
 		}
 
 	}
 
-	
-	public void addSectionsCounts(Set<Character> sections){
+	/**
+	 * Adds a count per section that a document belongs to.
+	 * A section is counted once per document even if several of the classes belong to it.
+	 * @param classes ids of the classes that a document belongs to
+	 * @param numberOfClasses number of valid entries in classes
+	 */
+	public void addSectionsCounts(int[] classes, int numberOfClasses){
 
-		for(Character singleSection : sections){
-			//same for the class counts (initialise to 1)
-			if(sectionTotalCounts.get(singleSection) == null){
-				sectionTotalCounts.put(singleSection, 1);
+		for(int classIndex = 0; classIndex < numberOfClasses; classIndex++){
+
+			int section = labels.getSection(classes[classIndex]);
+
+			//skip the section if a previous class already counted it
+			boolean counted = false;
+			for(int previous = 0; previous < classIndex; previous++){
+				if(labels.getSection(classes[previous]) == section){
+					counted = true;
+					break;
+				}
 			}
-			else{
-				//just add the count
-				sectionTotalCounts.put(singleSection, sectionTotalCounts.get(singleSection) + 1);
+
+			if(!counted){
+				sectionTotalCounts[section]++;
 			}
 		}
 
 	}
 
+	/**
+	 * Starts counting a new document: the document frequency of a feature is incremented once per document,
+	 * however many times the feature appears in it. Call it before the features of every document.
+	 */
+	public void startDocument(){
+		currentDocument++;
+	}
+
 	/**
 	 * Adds a count per feature for all classes the doc belongs to.
 	 * @param featureIndex : id of the feature
-	 * @param initialFeatureCount : number of times the feature has been observed
-	 * @param classes : classes the document belongs to
-	 */
-	public void addFeatureCount(int featureIndex, int initialFeatureCount, String[] classes){
-		
-		int featureCount = initialFeatureCount; 
-		
-		//add feature count at class level
-		for(String singleClass : classes){
-			//if there is no entry for the feature add the entry initialised to featureCount
-			if(featureCountTotalsPerClass.get(singleClass).get(featureIndex) == null){
-				featureCountTotalsPerClass.get(singleClass).put(featureIndex, featureCount);
+	 * @param featureCount : number of times the feature has been observed
+	 * @param classes : ids of the classes the document belongs to
+	 * @param numberOfClasses : number of valid entries in classes
+	 */
+	public void addFeatureCount(int featureIndex, int featureCount, int[] classes, int numberOfClasses){
+
+		int slot = addFeature(featureIndex);
+		if(featureLastDocuments[slot] != currentDocument){
+			featureLastDocuments[slot] = currentDocument;
+			featureDocumentCounts[slot]++;
+		}
+
+		//add feature count at class level (we store the accumulator)
+		for(int classIndex = 0; classIndex < numberOfClasses; classIndex++){
+			featureCountsPerClass[classes[classIndex]].add(slot, featureCount);
+			featureCountTotalsPerClass[classes[classIndex]] += featureCount;
+		}
+	}
+
+	/**
+	 * Returns the slot of the feature, allocating a new one if the feature was never seen.
+	 */
+	int addFeature(int featureIndex){
+
+		int slot = featureSlots.get(featureIndex, -1);
+		if(slot < 0){
+			slot = featureSlots.size();
+			if(slot == featureIds.length){
+				featureIds = Arrays.copyOf(featureIds, slot << 1);
+				featureDocumentCounts = Arrays.copyOf(featureDocumentCounts, slot << 1);
+				featureLastDocuments = Arrays.copyOf(featureLastDocuments, slot << 1);
 			}
-			else{
-				//otherwise add feature count to the entry (we store the accumulator)
-				featureCountTotalsPerClass.get(singleClass).put(featureIndex, featureCountTotalsPerClass.get(singleClass).get(featureIndex) + featureCount);
+			featureIds[slot] = featureIndex;
+			featureSlots.put(featureIndex, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds all the counts of other to this data, as if the documents counted by other had been processed here.
+	 * Classes, sections and features are matched by name and id, so other may have been filled in any order
+	 * (by another thread, or on another machine).
+	 * Classes and features new to this data are appended in the order they have in other.
+	 * @param other partial counts to merge in (left unchanged)
+	 */
+	public void merge(NBRawData other){
+
+		//map the sections of other to the sections of this data
+		int[] sectionMapping = new int[other.getNumberOfSections()];
+		for(int otherSection = 0; otherSection < sectionMapping.length; otherSection++){
+			sectionMapping[otherSection] = addSection(other.getSectionName(otherSection));
+			sectionTotalCounts[sectionMapping[otherSection]] += other.getSectionTotalCount(otherSection);
+		}
+
+		//map the features of other to the slots of this data
+		int[] slotMapping = new int[other.getNumberOfFeatures()];
+		for(int otherSlot = 0; otherSlot < slotMapping.length; otherSlot++){
+			slotMapping[otherSlot] = addFeature(other.getFeatureId(otherSlot));
+			featureDocumentCounts[slotMapping[otherSlot]] += other.getFeatureDocumentCount(otherSlot);
+		}
+
+		for(int otherClass = 0; otherClass < other.getNumberOfClasses(); otherClass++){
+
+			int classId = addClass(other.getClassName(otherClass));
+			classTotalCounts[classId] += other.getClassTotalCount(otherClass);
+			featureCountTotalsPerClass[classId] += other.getFeatureCountTotal(otherClass);
+			changedClasses[classId] = true;
+
+			NBCountMap featureCounts = featureCountsPerClass[classId];
+			NBCountMap otherFeatureCounts = other.getFeatureCounts(otherClass);
+			for(int entry = 0; entry < otherFeatureCounts.capacity(); entry++){
+				if(otherFeatureCounts.isUsed(entry)){
+					featureCounts.add(slotMapping[otherFeatureCounts.keyAt(entry)], otherFeatureCounts.valueAt(entry));
+				}
 			}
-			
 		}
 	}
 
+	/**
+	 * Adds count documents to a class (used when loading saved counts).
+	 */
+	void addClassCount(int classId, int count){
+		classTotalCounts[classId] += count;
+		changedClasses[classId] = true;
+	}
 
-	public LinkedHashMap<String, LinkedHashMap<Integer, Integer>> getFeatureCountTotalsPerClass() {
-		return featureCountTotalsPerClass;
+	/**
+	 * Adds count documents to a section (used when loading saved counts).
+	 */
+	void addSectionCount(int sectionId, int count){
+		sectionTotalCounts[sectionId] += count;
 	}
 
+	/**
+	 * Adds count occurrences of the feature in the given slot to a class (used when loading saved counts).
+	 */
+	void addClassFeatureCount(int classId, int slot, int count){
+		featureCountsPerClass[classId].add(slot, count);
+		featureCountTotalsPerClass[classId] += count;
+	}
 
-	public void setFeatureCountTotalsPerClass(
-			LinkedHashMap<String, LinkedHashMap<Integer, Integer>> featureCountTotalsPerClass) {
-		this.featureCountTotalsPerClass = featureCountTotalsPerClass;
+	/**
+	 * Adds count documents to the document frequency of the feature in the given slot (used when loading saved counts).
+	 */
+	void addFeatureDocumentCount(int slot, int count){
+		featureDocumentCounts[slot] += count;
 	}
 
-	public LinkedHashMap<String, Integer> getClassTotalCounts() {
-		return classTotalCounts;
+	/**
+	 * Adds count occurrences to the total of a class without attributing them to any feature
+	 * (used to keep the mass of pruned features, see NBFeatureSelection).
+	 */
+	void addFeatureCountTotal(int classId, long count){
+		featureCountTotalsPerClass[classId] += count;
 	}
 
+	/**
+	 * @param classId
+	 * @return whether documents were added to the class since the last call to resetChangedClasses
+	 * (classes are created changed)
+	 */
+	public boolean isClassChanged(int classId) {
+		return changedClasses[classId];
+	}
 
-	public void setClassTotalCounts(LinkedHashMap<String, Integer> classTotalCounts) {
-		this.classTotalCounts = classTotalCounts;
+	/**
+	 * Marks all classes as unchanged, typically once a model has been finalized from the counts.
+	 */
+	public void resetChangedClasses() {
+		Arrays.fill(changedClasses, false);
 	}
 
+	public NBStorage getStorage() {
+		return storage;
+	}
 
-	public LinkedHashMap<Character, Integer> getSectionTotalCounts() {
-		return sectionTotalCounts;
+	public int getNumberOfClasses() {
+		return labels.size();
 	}
 
+	public String getClassName(int classId) {
+		return labels.getName(classId);
+	}
 
-	public void setSectionTotalCounts(
-			LinkedHashMap<Character, Integer> sectionTotalCounts) {
-		this.sectionTotalCounts = sectionTotalCounts;
+	/**
+	 * @param className
+	 * @return the id of the class or -1 if it was never seen
+	 */
+	public int getClassId(String className) {
+		return labels.getId(className);
 	}
-	
+
+	public int getClassSection(int classId) {
+		return labels.getSection(classId);
+	}
+
+	public int getClassTotalCount(int classId) {
+		return classTotalCounts[classId];
+	}
+
+	public int getNumberOfSections() {
+		return labels.getNumberOfSections();
+	}
+
+	public char getSectionName(int sectionId) {
+		return labels.getSectionName(sectionId);
+	}
+
+	public int getSectionTotalCount(int sectionId) {
+		return sectionTotalCounts[sectionId];
+	}
+
+	/**
+	 * @return number of different features observed
+	 */
+	public int getNumberOfFeatures() {
+		return featureSlots.size();
+	}
+
+	public int getFeatureId(int slot) {
+		return featureIds[slot];
+	}
+
+	/**
+	 * @param featureIndex
+	 * @return the slot of the feature or -1 if it was never seen
+	 */
+	public int getFeatureSlot(int featureIndex) {
+		return featureSlots.get(featureIndex, -1);
+	}
+
+	/**
+	 * @param slot
+	 * @return number of documents the feature was observed in
+	 */
+	public int getFeatureDocumentCount(int slot) {
+		return featureDocumentCounts[slot];
+	}
+
+	/**
+	 * @param classId
+	 * @return map from feature slot to the accumulated count for the class
+	 */
+	public NBCountMap getFeatureCounts(int classId) {
+		return featureCountsPerClass[classId];
+	}
+
+	/**
+	 * @param classId
+	 * @return sum of the counts of all features for the class
+	 */
+	public long getFeatureCountTotal(int classId) {
+		return featureCountTotalsPerClass[classId];
+	}
+
 }
@@ -0,0 +1,16 @@
+
+
+/**
+ * @author andresaan
+ * Computes the log probability of the classes of a model for a document vector.
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface NBScorer {
+
+	/**
+	 * @param vector parsed document vector
+	 * @param scores output, one entry per class id; classes a scorer does not evaluate get Double.NEGATIVE_INFINITY
+	 */
+	public void score(NBSparseVector vector, double[] scores);
+
+}
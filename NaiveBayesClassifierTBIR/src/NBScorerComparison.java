@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.aarribas.io.LineProcessor;
+import org.aarribas.io.TextFileReader;
+
+
+/**
+ * @author andresaan
+ * Compares an approximate scorer with a reference one (usually the exact scoring of the model) over a test file:
+ * how often the predicted top-1 class and the whole top-k list differ, the accuracy of each against
+ * the expected classes of the test file when present, and the mean scoring time per document.
+ * Both scorers must use the same class ids.
+ */
+public class NBScorerComparison {
+
+	private int numberOfClasses;
+
+	private int k;
+
+	private long documents;
+
+	private long sameTop1;
+
+	private long sameTopK;
+
+	private long referenceCorrect;
+
+	private long candidateCorrect;
+
+	private long labelledDocuments;
+
+	private long referenceNanos;
+
+	private long candidateNanos;
+
+	/**
+	 * @param numberOfClasses number of classes of both scorers
+	 * @param k number of predicted classes compared per document
+	 */
+	public NBScorerComparison(int numberOfClasses, int k) {
+		this.numberOfClasses = numberOfClasses;
+		this.k = k;
+	}
+
+	//class ids of the expected classes of the document being compared (-1 for classes the model does not have)
+	private int[] expectedClassIds = new int[8];
+
+	private int numberOfExpectedClasses;
+
+	/**
+	 * Scores every document of the test file with both scorers and accumulates the comparison.
+	 * @param reference
+	 * @param candidate
+	 * @param model model giving the class names, to check the predictions against the expected classes
+	 * @param testFilename
+	 * @throws IOException
+	 */
+	public void compare(final NBScorer reference, final NBScorer candidate, final NBModel model, String testFilename) throws IOException {
+
+		final NBSparseVector vector = new NBSparseVector();
+		final NBVectorParser parser = new NBVectorParser();
+		final NBVectorHandler handler = new NBVectorHandler() {
+			public void classLabel(CharSequence text, int start, int end) {
+				if(numberOfExpectedClasses == expectedClassIds.length){
+					expectedClassIds = Arrays.copyOf(expectedClassIds, numberOfExpectedClasses << 1);
+				}
+				expectedClassIds[numberOfExpectedClasses++] = model.getClassId(text, start, end);
+			}
+
+			public void feature(int featureId, double count) {
+				vector.add(featureId, count);
+			}
+		};
+
+		final double[] referenceScores = new double[numberOfClasses];
+		final double[] candidateScores = new double[numberOfClasses];
+		final NBTopK referenceTopK = new NBTopK(k);
+		final NBTopK candidateTopK = new NBTopK(k);
+
+		new TextFileReader().processTextFile(testFilename, new LineProcessor() {
+			public void processLine(String line) {
+
+				vector.clear();
+				numberOfExpectedClasses = 0;
+				parser.parse(line, handler);
+
+				long start = System.nanoTime();
+				reference.score(vector, referenceScores);
+				long middle = System.nanoTime();
+				candidate.score(vector, candidateScores);
+				long end = System.nanoTime();
+				referenceNanos += middle - start;
+				candidateNanos += end - middle;
+
+				referenceTopK.select(referenceScores, numberOfClasses);
+				candidateTopK.select(candidateScores, numberOfClasses);
+
+				documents++;
+				if(referenceTopK.getClassId(0) == candidateTopK.getClassId(0)){
+					sameTop1++;
+				}
+				boolean same = referenceTopK.size() == candidateTopK.size();
+				for(int rank = 0; same && rank < referenceTopK.size(); rank++){
+					same = referenceTopK.getClassId(rank) == candidateTopK.getClassId(rank);
+				}
+				if(same){
+					sameTopK++;
+				}
+
+				//a prediction is correct when its best class is one of the expected ones
+				if(numberOfExpectedClasses > 0){
+					labelledDocuments++;
+					if(isExpected(referenceTopK.getClassId(0))){
+						referenceCorrect++;
+					}
+					if(isExpected(candidateTopK.getClassId(0))){
+						candidateCorrect++;
+					}
+				}
+			}
+		});
+	}
+
+	private boolean isExpected(int classId){
+		for(int index = 0; index < numberOfExpectedClasses; index++){
+			if(expectedClassIds[index] == classId){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return a human readable report of the comparison
+	 */
+	public String getReport(){
+
+		StringBuilder report = new StringBuilder();
+		report.append("Documents: ").append(documents).append('\n');
+		report.append(String.format("Same top-1: %.4f%n", ratio(sameTop1, documents)));
+		report.append(String.format("Same top-%d (in order): %.4f%n", k, ratio(sameTopK, documents)));
+		report.append(String.format("Documents with a different top-%d: %d%n", k, documents - sameTopK));
+		if(labelledDocuments > 0){
+			report.append(String.format("Top-1 accuracy: reference %.4f, candidate %.4f%n",
+					ratio(referenceCorrect, labelledDocuments), ratio(candidateCorrect, labelledDocuments)));
+		}
+		report.append(String.format("Scoring time per document: reference %.1f us, candidate %.1f us%n",
+				ratio(referenceNanos, documents) / 1000d, ratio(candidateNanos, documents) / 1000d));
+		return report.toString();
+	}
+
+	private static double ratio(long numerator, long denominator){
+		return denominator == 0 ? 0d : (double)numerator / denominator;
+	}
+
+}
@@ -0,0 +1,136 @@
+
+
+/**
+ * @author andresaan
+ * Scorer that only touches the (feature, class) pairs observed at training time.
+ * Most entries of the table of log P(W|C) hold the unseen feature probability of their class, so the score of a class is
+ * written as a baseline, the unseen probability times the total count of the document plus the class and section priors,
+ * corrected by delta = log P(W|C) - unseen for every feature of the document observed with the class.
+ * The deltas are kept in an inverted index from the row of a feature to the (class id, delta) postings of the classes
+ * that contain it, so the work per document scales with the postings touched instead of classes x features.
+ * The scores are the ones of NBModel.score up to the rounding of the different order of the additions.
+ */
+public class NBSparseScorer implements NBScorer {
+
+	private NBModel model;
+
+	//log P(C|S) + log P(S), indexed by class id
+	private double[] priors;
+
+	private double[] unseenFeatureProbs;
+
+	//postings of the row of slot are [rowStarts[slot], rowStarts[slot + 1])
+	private int[] rowStarts;
+
+	private int[] postingClasses;
+
+	private double[] postingDeltas;
+
+	/**
+	 * Builds the inverted index from the table of the model.
+	 * @param model model with double precision log probabilities
+	 * @throws IllegalArgumentException if the model has a lower precision (its entries of unseen features are not
+	 * exactly the unseen probability) or too many observed pairs for the arrays of the index
+	 */
+	public NBSparseScorer(NBModel model) {
+
+		if(model.getPrecision() != NBPrecision.DOUBLE){
+			throw new IllegalArgumentException("Sparse scoring needs a double precision model, got " + model.getPrecision() + ".");
+		}
+		this.model = model;
+
+		int numberOfClasses = model.getNumberOfClasses();
+		int numberOfFeatures = model.getNumberOfFeatures();
+
+		priors = new double[numberOfClasses];
+		unseenFeatureProbs = new double[numberOfClasses];
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			priors[classId] = model.getSectionProb(model.getClassSection(classId)) + model.getClassProb(classId);
+			unseenFeatureProbs[classId] = model.getUnseenFeatureProb(classId);
+		}
+
+		//count the postings of every row first, to allocate the index at once
+		rowStarts = new int[numberOfFeatures + 1];
+		long numberOfPostings = 0;
+		for(int slot = 0; slot < numberOfFeatures; slot++){
+			rowStarts[slot] = (int)numberOfPostings;
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				if(model.getFeatureProb(slot, classId) != unseenFeatureProbs[classId]){
+					numberOfPostings++;
+				}
+			}
+			if(numberOfPostings > Integer.MAX_VALUE - 8){
+				throw new IllegalArgumentException("The model has too many observed feature and class pairs for sparse scoring.");
+			}
+		}
+		rowStarts[numberOfFeatures] = (int)numberOfPostings;
+
+		postingClasses = new int[(int)numberOfPostings];
+		postingDeltas = new double[(int)numberOfPostings];
+		int posting = 0;
+		for(int slot = 0; slot < numberOfFeatures; slot++){
+			for(int classId = 0; classId < numberOfClasses; classId++){
+				double logProb = model.getFeatureProb(slot, classId);
+				if(logProb != unseenFeatureProbs[classId]){
+					postingClasses[posting] = classId;
+					postingDeltas[posting] = logProb - unseenFeatureProbs[classId];
+					posting++;
+				}
+			}
+		}
+	}
+
+	public NBModel getModel() {
+		return model;
+	}
+
+	public int getNumberOfPostings() {
+		return postingClasses.length;
+	}
+
+	/**
+	 * @return fraction of the entries of the table held as postings
+	 */
+	public double getDensity() {
+		double numberOfEntries = (double)model.getNumberOfFeatures() * model.getNumberOfClasses();
+		return numberOfEntries == 0 ? 0d : postingClasses.length / numberOfEntries;
+	}
+
+	/**
+	 * @return approximate number of bytes held by the index (the model is not counted)
+	 */
+	public long getMemoryFootprint() {
+		return postingClasses.length * 12L + rowStarts.length * 4L + priors.length * 16L;
+	}
+
+	public void score(NBSparseVector vector, double[] scores){
+
+		int numberOfClasses = priors.length;
+
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			scores[classId] = 0d;
+		}
+
+		//every entry of the document counts as unseen in the baseline, the observed pairs are corrected
+		double totalCount = 0;
+		for(int entry = 0; entry < vector.size(); entry++){
+
+			double v = vector.getCount(entry);
+			totalCount = totalCount + v;
+
+			int slot = model.getFeatureSlot(vector.getFeatureId(entry));
+			if(slot >= 0){
+				int end = rowStarts[slot + 1];
+				for(int posting = rowStarts[slot]; posting < end; posting++){
+					int classId = postingClasses[posting];
+					scores[classId] = scores[classId] + postingDeltas[posting]*v;
+				}
+			}
+		}
+
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			scores[classId] = priors[classId] + (unseenFeatureProbs[classId]*totalCount + scores[classId]);
+		}
+	}
+
+}
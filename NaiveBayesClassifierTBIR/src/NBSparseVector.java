@@ -0,0 +1,63 @@
+import java.util.Arrays;
+
+
+/**
+ * @author andresaan
+ * Parsed document vector: parallel arrays of feature ids and their counts.
+ * Instances are meant to be reused from one document to the next (see clear).
+ */
+public class NBSparseVector {
+
+	private int[] featureIds;
+
+	private double[] counts;
+
+	private int size;
+
+	public NBSparseVector() {
+		this(64);
+	}
+
+	/**
+	 * @param capacity number of entries the vector can hold before growing
+	 */
+	public NBSparseVector(int capacity) {
+		featureIds = new int[capacity];
+		counts = new double[capacity];
+	}
+
+	/**
+	 * Removes all the entries, keeping the allocated arrays.
+	 */
+	public void clear(){
+		size = 0;
+	}
+
+	/**
+	 * Adds one id:count entry to the vector.
+	 * @param featureId
+	 * @param count
+	 */
+	public void add(int featureId, double count){
+		if(size == featureIds.length){
+			featureIds = Arrays.copyOf(featureIds, size << 1);
+			counts = Arrays.copyOf(counts, size << 1);
+		}
+		featureIds[size] = featureId;
+		counts[size] = count;
+		size++;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int getFeatureId(int entry){
+		return featureIds[entry];
+	}
+
+	public double getCount(int entry){
+		return counts[entry];
+	}
+
+}
@@ -0,0 +1,223 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * @author andresaan
+ * Where the training counts (one NBCountMap per class, see NBRawData) and the table of log P(W|C)
+ * of a finalized model (see NBModel) are stored:
+ *  - on the heap (the default): plain arrays;
+ *  - off heap: direct buffers, which the garbage collector does not scan or copy, however large. They are still limited
+ *    by -XX:MaxDirectMemorySize, which defaults to the maximum heap size (-Xmx): raise it to hold more than the heap;
+ *  - file backed: buffers carved from large mappings of temporary files of a directory, so the OS can page them out
+ *    to disk instead of needing the memory, and so that a few files and mappings hold all the buffers.
+ *    The files are deleted as soon as they are mapped.
+ * Buffers released by their owner (e.g. the entries of a count map replaced when it grows) are kept and handed out
+ * again for the next allocation of the same size. Off heap memory and mappings are released when the garbage collector
+ * frees the buffer objects (all the buffers carved from a mapping for the mapping).
+ * Tables of lower precision (see NBPrecision), the section table and models loaded from a file
+ * (whose table is already mapped) do not depend on the storage.
+ */
+public class NBStorage {
+
+	public enum Kind {
+		HEAP, OFF_HEAP, FILE
+	}
+
+	private static final NBStorage HEAP = new NBStorage(Kind.HEAP, null);
+
+	private Kind kind;
+
+	private File directory;
+
+	//size of the mappings buffers are carved from; larger buffers get their own mapping
+	private static final int CHUNK_BYTES = 64 << 20;
+
+	//file backed storage: the mapping buffers are carved from, its remaining bytes are free
+	private ByteBuffer chunk;
+
+	//released buffers by capacity, reused before allocating
+	private Map<Integer, List<ByteBuffer>> releasedBuffers = new HashMap<Integer, List<ByteBuffer>>();
+
+	private NBStorage(Kind kind, File directory) {
+		this.kind = kind;
+		this.directory = directory;
+	}
+
+	public static NBStorage heap() {
+		return HEAP;
+	}
+
+	public static NBStorage offHeap() {
+		return new NBStorage(Kind.OFF_HEAP, null);
+	}
+
+	/**
+	 * @param directory directory of the temporary files (must exist)
+	 * @return a storage mapping temporary files of the directory
+	 */
+	public static NBStorage fileBacked(File directory) {
+		if(!directory.isDirectory()){
+			throw new IllegalArgumentException("The storage directory " + directory + " does not exist.");
+		}
+		return new NBStorage(Kind.FILE, directory);
+	}
+
+	/**
+	 * @param name heap, offheap or file (case insensitive)
+	 * @param directory directory of the temporary files for file, null for the default temporary directory
+	 * @return the storage
+	 * @throws IllegalArgumentException if the name is not a storage or the directory does not exist
+	 */
+	public static NBStorage parse(String name, String directory) {
+		if(name.equalsIgnoreCase("heap")){
+			return heap();
+		}
+		if(name.equalsIgnoreCase("offheap")){
+			return offHeap();
+		}
+		if(name.equalsIgnoreCase("file")){
+			return fileBacked(new File(directory != null ? directory : System.getProperty("java.io.tmpdir")));
+		}
+		throw new IllegalArgumentException("Unknown storage " + name + ", expected heap, offheap or file.");
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public boolean isOffHeap() {
+		return kind != Kind.HEAP;
+	}
+
+	/**
+	 * @return a new empty count map in this storage
+	 */
+	public NBCountMap newCountMap() {
+		return isOffHeap() ? new NBOffHeapIntIntMap(this) : new NBIntIntMap();
+	}
+
+	/**
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 * @return a new table of zeros in this storage
+	 * @throws IllegalArgumentException if the table does not fit in an array and the storage is the heap
+	 */
+	public NBWritableLogProbTable newTable(int numberOfRows, int numberOfColumns) {
+		if(isOffHeap()){
+			return new NBMappedLogProbTable(this, numberOfRows, numberOfColumns);
+		}
+		long size = (long)numberOfRows * numberOfColumns;
+		if(size > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException("A table of " + numberOfRows + " x " + numberOfColumns
+					+ " values does not fit in an array, use an off heap storage.");
+		}
+		return new NBArrayLogProbTable(new double[(int)size], numberOfRows, numberOfColumns);
+	}
+
+	/**
+	 * Allocates a zeroed buffer of an off heap storage, in the native byte order.
+	 * A released buffer of the same size is reused if there is one.
+	 * @param bytes
+	 * @return the buffer
+	 * @throws IllegalStateException if the direct memory is exhausted or the temporary file of a file backed storage can not be mapped
+	 */
+	synchronized ByteBuffer allocate(int bytes) {
+
+		if(kind == Kind.HEAP){
+			throw new IllegalStateException("The heap storage does not allocate buffers.");
+		}
+
+		List<ByteBuffer> released = releasedBuffers.get(bytes);
+		if(released != null && !released.isEmpty()){
+			ByteBuffer buffer = released.remove(released.size() - 1);
+			clear(buffer);
+			return buffer;
+		}
+
+		if(kind == Kind.OFF_HEAP){
+			try {
+				return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+			} catch (OutOfMemoryError e) {
+				throw new IllegalStateException("Could not allocate " + bytes + " bytes of direct memory, which is limited by"
+						+ " -XX:MaxDirectMemorySize (by default the maximum heap size): raise it or use the file backed storage.", e);
+			}
+		}
+
+		if(bytes > CHUNK_BYTES / 4){
+			return map(bytes);
+		}
+		if(chunk == null || chunk.remaining() < bytes){
+			chunk = map(CHUNK_BYTES);
+		}
+		ByteBuffer buffer = chunk.duplicate();
+		buffer.limit(buffer.position() + bytes);
+		chunk.position(chunk.position() + bytes);
+		return buffer.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Hands a buffer allocated by this storage back, to be reused by a later allocation of the same size.
+	 * The caller must not use the buffer any more.
+	 * @param buffer
+	 */
+	synchronized void release(ByteBuffer buffer) {
+		List<ByteBuffer> released = releasedBuffers.get(buffer.capacity());
+		if(released == null){
+			released = new ArrayList<ByteBuffer>();
+			releasedBuffers.put(buffer.capacity(), released);
+		}
+		released.add(buffer);
+	}
+
+	private static void clear(ByteBuffer buffer) {
+		int index = 0;
+		for(; index + 8 <= buffer.capacity(); index = index + 8){
+			buffer.putLong(index, 0L);
+		}
+		for(; index < buffer.capacity(); index++){
+			buffer.put(index, (byte)0);
+		}
+	}
+
+	/**
+	 * Maps a new temporary file of the directory of a file backed storage.
+	 */
+	private ByteBuffer map(int bytes) {
+
+		File file = null;
+		try {
+			file = File.createTempFile("nb-storage", ".bin", directory);
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				randomAccessFile.setLength(bytes);
+				return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map " + bytes + " bytes of storage in " + directory + ".", e);
+		} finally {
+			//the mapping stays valid without the file name (where the OS allows to delete a mapped file)
+			if(file != null && !file.delete()){
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	public String toString() {
+		if(kind == Kind.FILE){
+			return "file backed storage in " + directory;
+		}
+		return kind == Kind.OFF_HEAP ? "off heap storage" : "heap storage";
+	}
+
+}
@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * @author andresaan
+ * Durations of an operation in nanoseconds: count, total, maximum and a latency histogram,
+ * safe to update from several threads.
+ * The histogram has 8 buckets per power of two, so percentiles are reported within 12.5% of the recorded values
+ * with a fixed amount of memory whatever the number of recorded durations.
+ * Every recording thread updates its own cell, with plain writes and no shared cache line, so timing the
+ * documents of parallel training and prediction does not serialize their threads; the readers add the cells up.
+ * The cells of finished threads are folded into one when a thread registers or the timer is read.
+ */
+public class NBTimer {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int NUMBER_OF_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	//durations recorded by threads that have finished
+	private Cell retired = new Cell(null);
+
+	//cells of the threads that recorded durations, guarded by the timer
+	private List<Cell> cells = new ArrayList<Cell>();
+
+	private ThreadLocal<Cell> threadCells = new ThreadLocal<Cell>() {
+		protected Cell initialValue() {
+			return register();
+		}
+	};
+
+	/**
+	 * Durations recorded by one thread. Only the owner writes; readers may see a recording half done,
+	 * which only skews a report taken while recording by that one duration.
+	 */
+	private static class Cell {
+
+		Thread owner;
+
+		long count;
+
+		long totalNanos;
+
+		long maxNanos;
+
+		long[] buckets = new long[NUMBER_OF_BUCKETS];
+
+		Cell(Thread owner) {
+			this.owner = owner;
+		}
+
+		void add(Cell other) {
+			count = count + other.count;
+			totalNanos = totalNanos + other.totalNanos;
+			maxNanos = Math.max(maxNanos, other.maxNanos);
+			for(int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++){
+				buckets[bucket] = buckets[bucket] + other.buckets[bucket];
+			}
+		}
+	}
+
+	private synchronized Cell register() {
+		retireFinishedThreads();
+		Cell cell = new Cell(Thread.currentThread());
+		cells.add(cell);
+		return cell;
+	}
+
+	//folds the cells of the threads that have finished (e.g. of a closed pool) into the retired one
+	private void retireFinishedThreads() {
+		for(int index = cells.size() - 1; index >= 0; index--){
+			Cell cell = cells.get(index);
+			if(!cell.owner.isAlive()){
+				retired.add(cell);
+				cells.remove(index);
+			}
+		}
+	}
+
+	/**
+	 * @return the sum of the cells of all the threads
+	 */
+	private synchronized Cell snapshot() {
+		retireFinishedThreads();
+		Cell total = new Cell(null);
+		total.add(retired);
+		for(Cell cell : cells){
+			total.add(cell);
+		}
+		return total;
+	}
+
+	/**
+	 * Records one duration.
+	 * @param nanos duration in nanoseconds (negative values count as 0)
+	 */
+	public void record(long nanos) {
+
+		nanos = Math.max(0, nanos);
+
+		Cell cell = threadCells.get();
+		cell.count++;
+		cell.totalNanos = cell.totalNanos + nanos;
+		if(nanos > cell.maxNanos){
+			cell.maxNanos = nanos;
+		}
+		cell.buckets[bucketOf(nanos)]++;
+	}
+
+	/**
+	 * Records the time elapsed since start.
+	 * @param start value of System.nanoTime() when the operation started
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	private static int bucketOf(long nanos){
+		if(nanos < SUB_BUCKETS){
+			return (int)nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	//largest duration that falls in the bucket
+	private static long upperBoundOf(int bucket){
+		if(bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lowerBound = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	public long getCount() {
+		return snapshot().count;
+	}
+
+	public long getTotalNanos() {
+		return snapshot().totalNanos;
+	}
+
+	public long getMaxNanos() {
+		return snapshot().maxNanos;
+	}
+
+	public double getMeanNanos() {
+		Cell total = snapshot();
+		return total.count == 0 ? 0d : (double)total.totalNanos / total.count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return duration in nanoseconds that percentile percent of the recorded durations do not exceed (bucket upper bound)
+	 */
+	public long getPercentileNanos(double percentile) {
+
+		Cell total = snapshot();
+		long recorded = 0;
+		for(int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++){
+			recorded = recorded + total.buckets[bucket];
+		}
+		if(recorded == 0){
+			return 0;
+		}
+
+		long rank = (long)Math.ceil(recorded * percentile / 100d);
+		long seen = 0;
+		for(int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++){
+			seen = seen + total.buckets[bucket];
+			if(seen >= rank && seen > 0){
+				return Math.min(upperBoundOf(bucket), total.maxNanos);
+			}
+		}
+		return total.maxNanos;
+	}
+
+}
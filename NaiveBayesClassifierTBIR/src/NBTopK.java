@@ -0,0 +1,136 @@
+
+
+/**
+ * @author andresaan
+ * Selects the k best scores out of an array of scores per class, with a fixed size min-heap.
+ * The heap keeps the worst of the selected classes at its root, so each class costs one comparison
+ * unless it enters the selection. Nothing is allocated after construction, so one instance
+ * should be reused (per thread) for all documents.
+ * Ties are broken in favour of the higher class id.
+ */
+public class NBTopK {
+
+	private int k;
+
+	private int[] classIds;
+
+	private double[] scores;
+
+	private int size;
+
+	/**
+	 * @param k number of classes to select
+	 */
+	public NBTopK(int k) {
+		if(k < 1){
+			throw new IllegalArgumentException("At least one class must be selected, got k = " + k + ".");
+		}
+		this.k = k;
+		this.classIds = new int[k];
+		this.scores = new double[k];
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Selects the best k (or numberOfClasses if smaller) entries of classScores.
+	 * After the call, getClassId(0) is the best class, getClassId(1) the second best...
+	 * @param classScores score per class id
+	 * @param numberOfClasses number of valid entries in classScores
+	 */
+	public void select(double[] classScores, int numberOfClasses){
+
+		size = 0;
+
+		for(int classId = 0; classId < numberOfClasses; classId++){
+			double score = classScores[classId];
+			if(size < k){
+				classIds[size] = classId;
+				scores[size] = score;
+				size++;
+				siftUp(size - 1);
+			}
+			else if(isBetter(score, classId, scores[0], classIds[0])){
+				classIds[0] = classId;
+				scores[0] = score;
+				siftDown(0, size);
+			}
+		}
+
+		//heap sort: move the worst to the end until the arrays are ordered from best to worst
+		for(int end = size - 1; end > 0; end--){
+			swap(0, end);
+			siftDown(0, end);
+		}
+	}
+
+	/**
+	 * @return number of selected classes (k unless there were less classes)
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param rank 0 for the best class
+	 * @return id of the class at the given rank
+	 */
+	public int getClassId(int rank) {
+		return classIds[rank];
+	}
+
+	/**
+	 * @param rank 0 for the best class
+	 * @return score of the class at the given rank
+	 */
+	public double getScore(int rank) {
+		return scores[rank];
+	}
+
+	private static boolean isBetter(double score, int classId, double otherScore, int otherClassId){
+		int comparison = Double.compare(score, otherScore);
+		return comparison > 0 || (comparison == 0 && classId > otherClassId);
+	}
+
+	private void siftUp(int index){
+		while(index > 0){
+			int parent = (index - 1) >> 1;
+			if(!isBetter(scores[parent], classIds[parent], scores[index], classIds[index])){
+				return;
+			}
+			swap(parent, index);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index, int heapSize){
+		while(true){
+			int worst = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if(left < heapSize && isBetter(scores[worst], classIds[worst], scores[left], classIds[left])){
+				worst = left;
+			}
+			if(right < heapSize && isBetter(scores[worst], classIds[worst], scores[right], classIds[right])){
+				worst = right;
+			}
+			if(worst == index){
+				return;
+			}
+			swap(index, worst);
+			index = worst;
+		}
+	}
+
+	private void swap(int first, int second){
+		int classId = classIds[first];
+		classIds[first] = classIds[second];
+		classIds[second] = classId;
+		double score = scores[first];
+		scores[first] = scores[second];
+		scores[second] = score;
+	}
+
+}
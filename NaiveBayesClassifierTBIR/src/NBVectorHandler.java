@@ -0,0 +1,25 @@
+
+
+/**
+ * @author andresaan
+ * Callback used by the NBVectorParser for each element of a document vector.
+ */
+public interface NBVectorHandler {
+
+	/**
+	 * Called once per class of the document, in order, before any feature.
+	 * The characters are only valid during the call.
+	 * @param text characters holding the class name
+	 * @param start index of the first character of the class name
+	 * @param end index after the last character of the class name
+	 */
+	public void classLabel(CharSequence text, int start, int end);
+
+	/**
+	 * Called once per id:count entry of the document, in order.
+	 * @param featureId
+	 * @param count
+	 */
+	public void feature(int featureId, double count);
+
+}
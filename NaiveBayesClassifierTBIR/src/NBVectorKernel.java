@@ -0,0 +1,99 @@
+import java.lang.reflect.InvocationTargetException;
+
+
+/**
+ * @author andresaan
+ * Entry point to the optional scoring kernel built on the incubating JDK Vector API (jdk.incubator.vector).
+ * The kernel (NBVectorLogProbTable) lives in the separate source folder NaiveBayesClassifierTBIR/vector,
+ * compiled and run with --add-modules jdk.incubator.vector, and is loaded by name so that the other
+ * sources build and run without the module. When it is missing, callers keep the scalar tables.
+ *
+ * The kernel adds the rows of a table to the accumulators a vector of classes at a time. Each lane does
+ * the same multiplication and addition as the scalar loop, so the scores are the same to the last bit.
+ */
+public class NBVectorKernel {
+
+	private static final String IMPLEMENTATION = "NBVectorLogProbTable";
+
+	//null until the kernel was looked up, then its class or the reason it is missing
+	private static Class<?> kernelClass;
+
+	private static String unavailableReason;
+
+	private static synchronized Class<?> getKernelClass() {
+		if(kernelClass == null && unavailableReason == null){
+			try {
+				//initializing the class resolves the vector species, which needs the module
+				kernelClass = Class.forName(IMPLEMENTATION, true, NBVectorKernel.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				unavailableReason = "the sources under NaiveBayesClassifierTBIR/vector were not compiled";
+			} catch (LinkageError e) {
+				unavailableReason = "the module jdk.incubator.vector is missing (run java with --add-modules jdk.incubator.vector)";
+			}
+		}
+		return kernelClass;
+	}
+
+	/**
+	 * @return whether the vector kernel can be used in this JVM
+	 */
+	public static boolean isAvailable() {
+		return getKernelClass() != null;
+	}
+
+	/**
+	 * @return why the vector kernel can not be used, or null if it can
+	 */
+	public static String getUnavailableReason() {
+		getKernelClass();
+		return unavailableReason;
+	}
+
+	/**
+	 * @return the vector shapes used by the kernel (e.g. "4 double lanes, 8 float lanes")
+	 * @throws UnsupportedOperationException if the kernel is not available
+	 */
+	public static String getDescription() {
+		try {
+			return (String)requireKernelClass().getMethod("describe").invoke(null);
+		} catch (InvocationTargetException e) {
+			throw rethrow(e);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("The vector kernel " + IMPLEMENTATION + " is incomplete.", e);
+		}
+	}
+
+	/**
+	 * Wraps a table so that its rows are added with the vector kernel. The values are shared, not copied.
+	 * Supported tables: NBArrayLogProbTable, NBMappedLogProbTable and NBFloatLogProbTable.
+	 * @param table
+	 * @return the table scored with the vector kernel
+	 * @throws UnsupportedOperationException if the kernel is not available
+	 * @throws IllegalArgumentException if the kernel does not support the table
+	 */
+	public static NBLogProbTable vectorize(NBLogProbTable table) {
+		try {
+			return (NBLogProbTable)requireKernelClass().getConstructor(NBLogProbTable.class).newInstance(table);
+		} catch (InvocationTargetException e) {
+			throw rethrow(e);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("The vector kernel " + IMPLEMENTATION + " is incomplete.", e);
+		}
+	}
+
+	private static Class<?> requireKernelClass() {
+		Class<?> kernel = getKernelClass();
+		if(kernel == null){
+			throw new UnsupportedOperationException("The vector kernel is not available: " + unavailableReason + ".");
+		}
+		return kernel;
+	}
+
+	private static RuntimeException rethrow(InvocationTargetException e) {
+		if(e.getCause() instanceof RuntimeException){
+			return (RuntimeException)e.getCause();
+		}
+		return new IllegalStateException(e.getCause());
+	}
+
+}
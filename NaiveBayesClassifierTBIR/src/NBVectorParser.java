@@ -0,0 +1,209 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/**
+ * @author andresaan
+ * Parses document vectors ("class,class id:count id:count ...") without splitting them into Strings.
+ * The classes may be left out (documents to classify online have none).
+ * Characters or bytes are scanned once and numbers are accumulated digit by digit,
+ * so nothing is allocated per entry. Counts with a fraction or an exponent (never
+ * produced by the preprocessing) fall back to Double.parseDouble.
+ * An instance reuses a view over the bytes it parses, so it must not be shared between threads.
+ */
+public class NBVectorParser {
+
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	//reused view of the bytes being parsed
+	private ByteCharSequence byteLine = new ByteCharSequence();
+
+	//last array parsed and its wrapping buffer, to avoid wrapping the same array again
+	private byte[] wrappedBytes;
+
+	private ByteBuffer wrappedBuffer;
+
+	/**
+	 * Parses one line held in a CharSequence (e.g. a String).
+	 * @param line
+	 * @param handler receives the class labels and then the features
+	 */
+	public void parse(CharSequence line, NBVectorHandler handler){
+
+		int length = line.length();
+		int position = skipBlanks(line, 0, length);
+
+		//classes separated by comma up to the first blank
+		//(the classes are optional: a class name never contains ':' so such a token is already an entry)
+		int firstTokenStart = position;
+		boolean hasClasses = true;
+		while(position < length && !isBlank(line.charAt(position))){
+			if(line.charAt(position) == ':'){
+				hasClasses = false;
+			}
+			position++;
+		}
+
+		if(hasClasses){
+			int labelStart = firstTokenStart;
+			for(int labelEnd = firstTokenStart; labelEnd < position; labelEnd++){
+				if(line.charAt(labelEnd) == ','){
+					emitLabel(line, labelStart, labelEnd, handler);
+					labelStart = labelEnd + 1;
+				}
+			}
+			emitLabel(line, labelStart, position, handler);
+		}
+		else{
+			position = firstTokenStart;
+		}
+
+		//id:count entries separated by blanks
+		while((position = skipBlanks(line, position, length)) < length){
+
+			int entryStart = position;
+			boolean negative = line.charAt(position) == '-';
+			if(negative){
+				position++;
+			}
+			long featureId = 0;
+			int digitsStart = position;
+			while(position < length && isDigit(line.charAt(position))){
+				featureId = featureId * 10 + (line.charAt(position) - '0');
+				position++;
+			}
+			if(position == digitsStart || position >= length || line.charAt(position) != ':' || featureId > Integer.MAX_VALUE){
+				throw malformed(line, entryStart);
+			}
+			position++;
+
+			int countStart = position;
+			boolean negativeCount = position < length && line.charAt(position) == '-';
+			if(negativeCount){
+				position++;
+			}
+			long count = 0;
+			digitsStart = position;
+			while(position < length && isDigit(line.charAt(position))){
+				count = count * 10 + (line.charAt(position) - '0');
+				position++;
+			}
+			double value;
+			if(position < length && !isBlank(line.charAt(position))){
+				//not a plain integer: let the JDK parse it
+				while(position < length && !isBlank(line.charAt(position))){
+					position++;
+				}
+				try {
+					value = Double.parseDouble(line.subSequence(countStart, position).toString());
+				} catch (NumberFormatException e) {
+					throw malformed(line, entryStart);
+				}
+			}
+			else{
+				if(position == digitsStart){
+					throw malformed(line, entryStart);
+				}
+				value = negativeCount ? -count : count;
+			}
+
+			handler.feature(negative ? (int)-featureId : (int)featureId, value);
+		}
+	}
+
+	/**
+	 * Parses one line held in bytes (ASCII).
+	 * @param bytes
+	 * @param start index of the first byte of the line
+	 * @param end index after the last byte of the line (excluding the line terminator)
+	 * @param handler receives the class labels and then the features
+	 */
+	public void parse(byte[] bytes, int start, int end, NBVectorHandler handler){
+		if(wrappedBytes != bytes){
+			wrappedBytes = bytes;
+			wrappedBuffer = ByteBuffer.wrap(bytes);
+		}
+		parse(wrappedBuffer, start, end, handler);
+	}
+
+	/**
+	 * Parses one line held in a byte buffer (ASCII), e.g. a slice of a memory mapped file.
+	 * The buffer is read with absolute gets, so its position is not changed and it can be shared between threads.
+	 * @param buffer
+	 * @param start index of the first byte of the line
+	 * @param end index after the last byte of the line (excluding the line terminator)
+	 * @param handler receives the class labels and then the features
+	 */
+	public void parse(ByteBuffer buffer, int start, int end, NBVectorHandler handler){
+		byteLine.reset(buffer, start, end);
+		parse(byteLine, handler);
+	}
+
+	private void emitLabel(CharSequence line, int start, int end, NBVectorHandler handler){
+		if(end > start){
+			handler.classLabel(line, start, end);
+		}
+	}
+
+	private static int skipBlanks(CharSequence line, int position, int length){
+		while(position < length && isBlank(line.charAt(position))){
+			position++;
+		}
+		return position;
+	}
+
+	private static boolean isBlank(char character){
+		return character == ' ' || character == '\t' || character == '\r' || character == '\n';
+	}
+
+	private static boolean isDigit(char character){
+		return character >= '0' && character <= '9';
+	}
+
+	private static NumberFormatException malformed(CharSequence line, int position){
+		int end = position;
+		while(end < line.length() && !isBlank(line.charAt(end))){
+			end++;
+		}
+		return new NumberFormatException("Malformed vector entry \"" + line.subSequence(position, end) + "\" at position " + position + ".");
+	}
+
+	/**
+	 * Read only view of ASCII bytes as characters.
+	 */
+	private static class ByteCharSequence implements CharSequence {
+
+		private ByteBuffer bytes;
+
+		private int start;
+
+		private int end;
+
+		void reset(ByteBuffer bytes, int start, int end){
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+		}
+
+		public int length() {
+			return end - start;
+		}
+
+		public char charAt(int index) {
+			return (char)(bytes.get(start + index) & 0xff);
+		}
+
+		public CharSequence subSequence(int subStart, int subEnd) {
+			byte[] copy = new byte[subEnd - subStart];
+			for(int index = 0; index < copy.length; index++){
+				copy[index] = bytes.get(start + subStart + index);
+			}
+			return new String(copy, LATIN1);
+		}
+
+		public String toString() {
+			return subSequence(0, length()).toString();
+		}
+	}
+
+}
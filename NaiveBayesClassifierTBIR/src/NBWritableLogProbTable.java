@@ -0,0 +1,23 @@
+
+
+/**
+ * @author andresaan
+ * NBLogProbTable whose values can be written, used to fill the table of a model being finalized
+ * (see NBStorage.newTable). Writes are not synchronized: a table must be filled before it is shared.
+ */
+public interface NBWritableLogProbTable extends NBLogProbTable {
+
+	/**
+	 * @param row feature slot
+	 * @param column column of the class
+	 * @param value log probability
+	 */
+	public void set(int row, int column, double value);
+
+	/**
+	 * @param row feature slot
+	 * @param values one value per column
+	 */
+	public void setRow(int row, double[] values);
+
+}
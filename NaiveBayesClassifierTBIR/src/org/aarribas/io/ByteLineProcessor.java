@@ -0,0 +1,22 @@
+package org.aarribas.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback used by the MappedFileReader: lines are handed over as slices of the mapped file, no String is created.
+ * @author andresaan
+ *
+ */
+public interface ByteLineProcessor {
+
+	/**
+	 * Called once per line, in file order within a chunk.
+	 * The bytes must be read with absolute gets (the buffer may be shared by several threads)
+	 * and must not be kept after the call returns.
+	 * @param buffer mapping holding the line
+	 * @param start index of the first byte of the line
+	 * @param end index after the last byte of the line (excluding the line terminator)
+	 */
+	public void processLine(ByteBuffer buffer, int start, int end);
+
+}
@@ -0,0 +1,69 @@
+package org.aarribas.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A range of whole lines of a file mapped by the MappedFileReader.
+ * Chunks of the same file can be processed by different threads at the same time.
+ * @author andresaan
+ *
+ */
+public class FileChunk {
+
+	private ByteBuffer buffer;
+
+	private int start;
+
+	private int end;
+
+	/**
+	 * @param buffer mapping holding the chunk
+	 * @param start index of the first byte of the first line
+	 * @param end index after the line terminator of the last line (or the end of the mapping)
+	 */
+	FileChunk(ByteBuffer buffer, int start, int end)
+	{
+		this.buffer = buffer;
+		this.start = start;
+		this.end = end;
+	}
+
+	public int getStart()
+	{
+		return start;
+	}
+
+	public int getEnd()
+	{
+		return end;
+	}
+
+	/**
+	 * Hands every line of the chunk to the processor, in order.
+	 * Lines end with '\n', a '\r' right before it is not part of the line,
+	 * and a last line without terminator is handed over if it is not empty.
+	 * @param processor called once per line
+	 */
+	public void processLines(ByteLineProcessor processor)
+	{
+		int lineStart = start;
+		for(int position = start; position < end; position++)
+		{
+			if(buffer.get(position) == '\n')
+			{
+				processor.processLine(buffer, lineStart, trimCarriageReturn(lineStart, position));
+				lineStart = position + 1;
+			}
+		}
+		if(lineStart < end)
+		{
+			processor.processLine(buffer, lineStart, trimCarriageReturn(lineStart, end));
+		}
+	}
+
+	private int trimCarriageReturn(int lineStart, int lineEnd)
+	{
+		return lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+	}
+
+}
@@ -0,0 +1,16 @@
+package org.aarribas.io;
+
+/**
+ * Callback used by the TextFileReader when a file is streamed instead of loaded in memory.
+ * @author andresaan
+ *
+ */
+public interface LineProcessor {
+
+	/**
+	 * Called once per line, in file order.
+	 * @param line the line without the line terminator
+	 */
+	public void processLine(String line);
+
+}
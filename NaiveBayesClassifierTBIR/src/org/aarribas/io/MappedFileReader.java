@@ -0,0 +1,130 @@
+package org.aarribas.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads a text file by memory mapping it, without decoding it into Strings.
+ * The file is mapped in segments (a single mapping can not exceed 2GB) whose boundaries are moved
+ * to the next line terminator, so no line is ever split between two mappings.
+ * Lines are found directly in the mapped bytes and handed over as slices (see ByteLineProcessor),
+ * and the file can be split into chunks of whole lines to be processed by several threads, without reading it
+ * first: only the bytes around the chunk boundaries are looked at, the workers read the rest.
+ * Only ASCII (or other single byte) encoded files are supported, which is what the vector files are.
+ * @author andresaan
+ *
+ */
+public class MappedFileReader {
+
+	private static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+	private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * Maps the file fileName. The mappings stay valid after the file is closed.
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public MappedFileReader(String fileName) throws IOException
+	{
+		this(fileName, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param fileName
+	 * @param segmentSize size of the mappings, extended to the end of the line they cut (at most Integer.MAX_VALUE)
+	 * @throws IOException
+	 */
+	public MappedFileReader(String fileName, long segmentSize) throws IOException
+	{
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(fileName, "r");
+		} catch (FileNotFoundException e) {
+			System.err.println("Error: The file " + fileName + " was not found.");
+			e.printStackTrace();
+			throw e;
+		}
+
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			long segmentStart = 0;
+			while(segmentStart < size)
+			{
+				//map a bit more than the segment to find the end of its last line
+				long mappedSize = Math.min(size - segmentStart, Integer.MAX_VALUE);
+				MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, mappedSize);
+
+				int segmentEnd = (int)mappedSize;
+				if(segmentStart + mappedSize < size || mappedSize > segmentSize)
+				{
+					segmentEnd = nextLineStart(mapping, (int)Math.min(segmentSize, mappedSize), (int)mappedSize);
+					if(segmentEnd == (int)mappedSize && segmentStart + mappedSize < size)
+					{
+						throw new IOException("The file " + fileName + " has a line longer than " + Integer.MAX_VALUE + " bytes.");
+					}
+				}
+				if(segmentEnd < mappedSize)
+				{
+					mapping = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd);
+				}
+
+				segments.add(mapping);
+				segmentStart = segmentStart + segmentEnd;
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	//index after the first '\n' found at or after position, or limit
+	private static int nextLineStart(MappedByteBuffer mapping, int position, int limit)
+	{
+		while(position < limit && mapping.get(position) != '\n')
+		{
+			position++;
+		}
+		return position < limit ? position + 1 : limit;
+	}
+
+	/**
+	 * Hands every line of the file to the processor, in file order.
+	 * @param processor called once per line
+	 */
+	public void processFile(ByteLineProcessor processor)
+	{
+		for(MappedByteBuffer segment : segments)
+		{
+			new FileChunk(segment, 0, segment.limit()).processLines(processor);
+		}
+	}
+
+	/**
+	 * Splits the file into chunks of about targetChunkBytes bytes of whole lines, in file order.
+	 * Only the positions of the line terminators near the chunk boundaries are read.
+	 * @param targetChunkBytes
+	 * @return the chunks
+	 */
+	public List<FileChunk> splitByBytes(int targetChunkBytes)
+	{
+		List<FileChunk> chunks = new ArrayList<FileChunk>();
+		for(MappedByteBuffer segment : segments)
+		{
+			int chunkStart = 0;
+			while(chunkStart < segment.limit())
+			{
+				int chunkEnd = nextLineStart(segment, (int)Math.min((long)chunkStart + Math.max(1, targetChunkBytes) - 1, segment.limit()), segment.limit());
+				chunks.add(new FileChunk(segment, chunkStart, chunkEnd));
+				chunkStart = chunkEnd;
+			}
+		}
+		return chunks;
+	}
+
+}
@@ -1,7 +1,10 @@
 package org.aarribas.io;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -43,6 +46,38 @@ public class TextFileReader {
 		inputStream.close();
 	}
 	
+	/**
+	 * Streams the text file fileName line by line to the given processor.
+	 * Lines are not kept in memory, so this should be preferred for big files.
+	 * @param fileName
+	 * @param processor called once per line
+	 * @throws IOException
+	 */
+	public void processTextFile(String fileName, LineProcessor processor) throws IOException
+	{
+		BufferedReader reader = null;
+		try {
+			//open file
+			reader = new BufferedReader(new FileReader(fileName), 1 << 16);
+
+		} catch (FileNotFoundException e) {
+			System.err.println("Error: The file " + fileName + " was not found.");
+			e.printStackTrace();
+			throw e;
+		}
+
+		try {
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				//hand each line over without saving it
+				processor.processLine(line);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
 	public List<String> getTextFileLines()
 	{
 		return textFileLines;
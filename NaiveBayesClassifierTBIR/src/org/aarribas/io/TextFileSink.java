@@ -0,0 +1,189 @@
+package org.aarribas.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Long lived writer of text lines to a file through a FileChannel and a large direct buffer.
+ * Lines are encoded straight from the given CharSequence into the buffer (one byte per character,
+ * ISO-8859-1, which round trips the bytes read by the MappedFileReader), so no String or byte[] is created per line.
+ * The buffer is written when it is full, every flushEveryLines lines if set, and on close;
+ * the sync policy decides when the data is also forced to the disk.
+ * All the methods are synchronized, so close can be called from a shutdown hook while lines are written:
+ * only whole lines are ever written to the file.
+ * @author andresaan
+ *
+ */
+public class TextFileSink {
+
+	public enum SyncPolicy{
+		//leave it to the operating system
+		NONE,
+		//force the data to the disk when the file is closed
+		ON_CLOSE,
+		//force the data to the disk on every flush
+		ON_FLUSH
+	}
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	private int flushEveryLines;
+
+	private SyncPolicy syncPolicy;
+
+	private int pendingLines;
+
+	private boolean closed;
+
+	/**
+	 * Opens the given file, replacing it (NEW) or adding to it (APPEND).
+	 * @param outputFileName
+	 * @param saveMode
+	 * @param bufferSize size of the direct buffer in bytes
+	 * @param flushEveryLines write the buffer every so many lines (0 to only write it when full)
+	 * @param syncPolicy
+	 * @throws IOException
+	 */
+	public TextFileSink(String outputFileName, TextFileSaver.SaveMode saveMode, int bufferSize, int flushEveryLines, SyncPolicy syncPolicy) throws IOException
+	{
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(outputFileName, "rw");
+		} catch (FileNotFoundException e) {
+			System.err.println("Error opening the file " + outputFileName + " for writing.");
+			e.printStackTrace();
+			throw e;
+		}
+		channel = file.getChannel();
+		if(saveMode == TextFileSaver.SaveMode.APPEND)
+		{
+			channel.position(channel.size());
+		}
+		else
+		{
+			channel.truncate(0);
+		}
+
+		this.buffer = ByteBuffer.allocateDirect(Math.max(1 << 10, bufferSize));
+		this.flushEveryLines = Math.max(0, flushEveryLines);
+		this.syncPolicy = syncPolicy;
+	}
+
+	/**
+	 * Writes the characters followed by a line terminator.
+	 * @param line
+	 * @throws IOException if the sink is closed or the file can not be written
+	 */
+	public synchronized void writeLine(CharSequence line) throws IOException
+	{
+		encode(line);
+		put((byte)'\n');
+		linesWritten(1);
+	}
+
+	/**
+	 * Writes text holding complete lines, each one with its terminator (e.g. the results of a whole batch).
+	 * @param lines
+	 * @param numberOfLines number of lines in the text, for the flush policy
+	 * @throws IOException if the sink is closed or the file can not be written
+	 */
+	public synchronized void writeLines(CharSequence lines, int numberOfLines) throws IOException
+	{
+		encode(lines);
+		linesWritten(numberOfLines);
+	}
+
+	private void encode(CharSequence text) throws IOException
+	{
+		if(closed)
+		{
+			throw new IOException("The text file sink is closed.");
+		}
+
+		int length = text.length();
+		for(int index = 0; index < length; index++)
+		{
+			char character = text.charAt(index);
+			put(character < 256 ? (byte)character : (byte)'?');
+		}
+	}
+
+	private void put(byte value) throws IOException
+	{
+		if(!buffer.hasRemaining())
+		{
+			writeBuffer();
+		}
+		buffer.put(value);
+	}
+
+	private void linesWritten(int numberOfLines) throws IOException
+	{
+		pendingLines = pendingLines + numberOfLines;
+		if(flushEveryLines != 0 && pendingLines >= flushEveryLines)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the buffered lines to the file (and forces them to the disk with SyncPolicy.ON_FLUSH).
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException
+	{
+		if(closed)
+		{
+			return;
+		}
+		writeBuffer();
+		pendingLines = 0;
+		if(syncPolicy == SyncPolicy.ON_FLUSH)
+		{
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Writes the buffered lines and closes the file. Calling it again does nothing.
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException
+	{
+		if(closed)
+		{
+			return;
+		}
+		try {
+			writeBuffer();
+			if(syncPolicy != SyncPolicy.NONE)
+			{
+				channel.force(false);
+			}
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	public synchronized boolean isClosed()
+	{
+		return closed;
+	}
+
+	private void writeBuffer() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
@@ -0,0 +1,194 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * @author andresaan
+ * NBLogProbTable adding its rows (or a range of their columns) to the accumulators with the JDK Vector API,
+ * a vector of classes at a time (the tail of each range, shorter than a vector, is added by the scalar loop).
+ * Wraps an NBArrayLogProbTable, NBMappedLogProbTable or NBFloatLogProbTable and reads its values in place;
+ * lookups and the updates of selected columns are left to the wrapped table.
+ *
+ * Needs --add-modules jdk.incubator.vector to compile and run; created through NBVectorKernel.
+ */
+public class NBVectorLogProbTable implements NBLogProbTable {
+
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+	private NBLogProbTable table;
+
+	private int numberOfColumns;
+
+	//values of the wrapped table, only one of them is set
+	private double[] doubleValues;
+
+	private ByteBuffer[] byteSegments;
+
+	private float[] floatValues;
+
+	private int rowsPerSegment;
+
+	//per thread float accumulators of addRows (float tables)
+	private ThreadLocal<float[]> threadSums = new ThreadLocal<float[]>() {
+		protected float[] initialValue() {
+			return new float[numberOfColumns];
+		}
+	};
+
+	/**
+	 * @param table table to read the values from
+	 * @throws IllegalArgumentException if the table is not stored in a supported way
+	 */
+	public NBVectorLogProbTable(NBLogProbTable table) {
+
+		this.table = table;
+		this.numberOfColumns = table.getNumberOfColumns();
+
+		if(table instanceof NBArrayLogProbTable){
+			doubleValues = ((NBArrayLogProbTable)table).getValues();
+		}
+		else if(table instanceof NBMappedLogProbTable){
+			NBMappedLogProbTable mapped = (NBMappedLogProbTable)table;
+			rowsPerSegment = mapped.getRowsPerSegment();
+			byteSegments = new ByteBuffer[(table.getNumberOfRows() + rowsPerSegment - 1) / rowsPerSegment];
+			for(int segment = 0; segment < byteSegments.length; segment++){
+				byteSegments[segment] = mapped.getByteSegment(segment);
+			}
+		}
+		else if(table instanceof NBFloatLogProbTable){
+			floatValues = ((NBFloatLogProbTable)table).getValues();
+		}
+		else{
+			throw new IllegalArgumentException("The vector kernel does not support tables in "
+					+ table.getPrecision().name().toLowerCase() + " precision.");
+		}
+	}
+
+	/**
+	 * @return the vector shapes of this JVM and CPU
+	 */
+	public static String describe() {
+		return DOUBLES.length() + " double lanes, " + FLOATS.length() + " float lanes";
+	}
+
+	public NBPrecision getPrecision() {
+		return table.getPrecision();
+	}
+
+	public int getNumberOfRows() {
+		return table.getNumberOfRows();
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	public double get(int row, int column) {
+		return table.get(row, column);
+	}
+
+	public void addRow(int row, double weight, double[] accumulators) {
+		addRow(row, weight, accumulators, 0, numberOfColumns);
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int fromColumn, int toColumn) {
+		if(doubleValues != null){
+			addArrayRow(row * numberOfColumns, weight, accumulators, fromColumn, toColumn);
+		}
+		else if(byteSegments != null){
+			addMappedRow(byteSegments[row / rowsPerSegment], (row % rowsPerSegment) * numberOfColumns, weight, accumulators, fromColumn, toColumn);
+		}
+		else{
+			table.addRow(row, weight, accumulators, fromColumn, toColumn);
+		}
+	}
+
+	public void addRow(int row, double weight, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+		table.addRow(row, weight, accumulators, columns, numberOfSelectedColumns);
+	}
+
+	//the selected columns are not contiguous, the wrapped table adds them with the same arithmetic as the lanes
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int[] columns, int numberOfSelectedColumns) {
+		table.addRows(rows, weights, numberOfGivenRows, accumulators, columns, numberOfSelectedColumns);
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators) {
+		addRows(rows, weights, numberOfGivenRows, accumulators, 0, numberOfColumns);
+	}
+
+	public void addRows(int[] rows, double[] weights, int numberOfGivenRows, double[] accumulators, int fromColumn, int toColumn) {
+
+		if(floatValues == null){
+			for(int index = 0; index < numberOfGivenRows; index++){
+				addRow(rows[index], weights[index], accumulators, fromColumn, toColumn);
+			}
+			return;
+		}
+
+		//same sums as NBFloatLogProbTable.addRows
+		float[] sums = threadSums.get();
+		for(int column = fromColumn; column < toColumn; column++){
+			sums[column] = 0f;
+		}
+
+		int bound = fromColumn + FLOATS.loopBound(toColumn - fromColumn);
+		for(int index = 0; index < numberOfGivenRows; index++){
+			int offset = rows[index] * numberOfColumns;
+			float weight = (float)weights[index];
+			FloatVector weightVector = FloatVector.broadcast(FLOATS, weight);
+
+			int column = fromColumn;
+			for(; column < bound; column += FLOATS.length()){
+				FloatVector.fromArray(FLOATS, sums, column)
+						.add(FloatVector.fromArray(FLOATS, floatValues, offset + column).mul(weightVector))
+						.intoArray(sums, column);
+			}
+			for(; column < toColumn; column++){
+				sums[column] = sums[column] + floatValues[offset + column]*weight;
+			}
+		}
+
+		for(int column = fromColumn; column < toColumn; column++){
+			accumulators[column] = accumulators[column] + sums[column];
+		}
+	}
+
+	private void addArrayRow(int offset, double weight, double[] accumulators, int fromColumn, int toColumn) {
+
+		DoubleVector weightVector = DoubleVector.broadcast(DOUBLES, weight);
+		int bound = fromColumn + DOUBLES.loopBound(toColumn - fromColumn);
+
+		int column = fromColumn;
+		for(; column < bound; column += DOUBLES.length()){
+			DoubleVector.fromArray(DOUBLES, accumulators, column)
+					.add(DoubleVector.fromArray(DOUBLES, doubleValues, offset + column).mul(weightVector))
+					.intoArray(accumulators, column);
+		}
+		for(; column < toColumn; column++){
+			accumulators[column] = accumulators[column] + doubleValues[offset + column]*weight;
+		}
+	}
+
+	private void addMappedRow(ByteBuffer segment, int offset, double weight, double[] accumulators, int fromColumn, int toColumn) {
+
+		DoubleVector weightVector = DoubleVector.broadcast(DOUBLES, weight);
+		int bound = fromColumn + DOUBLES.loopBound(toColumn - fromColumn);
+
+		int column = fromColumn;
+		for(; column < bound; column += DOUBLES.length()){
+			DoubleVector.fromArray(DOUBLES, accumulators, column)
+					.add(DoubleVector.fromByteBuffer(DOUBLES, segment, (offset + column) * 8, ByteOrder.LITTLE_ENDIAN).mul(weightVector))
+					.intoArray(accumulators, column);
+		}
+		for(; column < toColumn; column++){
+			accumulators[column] = accumulators[column] + segment.getDouble((offset + column) * 8)*weight;
+		}
+	}
+
+}